@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Factory of Android framework instances usable outside a device. Constructors of the Android SDK
+ * stubs throw an exception, so instances are created without calling them.
+ */
+final class AndroidFakes {
+
+  private static final Objenesis OBJENESIS = new ObjenesisStd();
+
+  private AndroidFakes() {
+  }
+
+  static Activity newActivity() {
+    return OBJENESIS.newInstance(FakeActivity.class);
+  }
+
+  /**
+   * Returns a context that is not an activity, so the inner activity is launched instead of
+   * attaching a fragment, which is not available outside a device
+   */
+  static Context newContext() {
+    return OBJENESIS.newInstance(FakeContext.class);
+  }
+
+  static Intent newIntent() {
+    return OBJENESIS.newInstance(FakeIntent.class);
+  }
+
+  static IntentProvider newIntentProvider() {
+    return new FakeIntentProvider(newIntent());
+  }
+
+  private static final class FakeActivity extends Activity {
+
+    @Override public void startActivity(Intent intent) {
+    }
+
+    @Override public void finish() {
+    }
+  }
+
+  private static final class FakeContext extends ContextWrapper {
+
+    private FakeContext() {
+      super(null);
+    }
+
+    @Override public void startActivity(Intent intent) {
+    }
+  }
+
+  private static final class FakeIntent extends Intent {
+
+    @Override public Intent addFlags(int flags) {
+      return this;
+    }
+  }
+
+  private static final class FakeIntentProvider extends IntentProvider {
+
+    private final Intent intent;
+
+    FakeIntentProvider(Intent intent) {
+      this.intent = intent;
+    }
+
+    @Override public Intent get(Context context, Class<?> clazz) {
+      return intent;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the whole DexterInstance request pipeline using fake Android collaborators. Run
+ * them with the gc profiler enabled to get the allocation rate of every kind of request.
+ */
+@State(Scope.Thread) @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DexterInstanceBenchmark {
+
+  @Param({ "1", "4", "10" }) int permissionCount;
+
+  private FakeAndroidPermissionService androidPermissionService;
+  private PermissionStateCache permissionStateCache;
+  private PermissionHistory permissionHistory;
+  private DexterInstance dexterInstance;
+  private Activity activity;
+  private LastReportListener listener;
+  private Thread thread;
+  private PermissionSet permissions;
+
+  @Setup public void setUp() {
+    androidPermissionService = new FakeAndroidPermissionService();
+    permissionStateCache = new PermissionStateCache(androidPermissionService);
+    permissionHistory = new PermissionHistory(null, null);
+    activity = AndroidFakes.newActivity();
+    dexterInstance = new DexterInstance(AndroidFakes.newContext(), androidPermissionService,
+        permissionStateCache, permissionHistory, AndroidFakes.newIntentProvider());
+    listener = new LastReportListener();
+    thread = new DirectThread();
+    permissions = new PermissionSet();
+    for (int i = 0; i < permissionCount; i++) {
+      permissions.add("android.permission.BENCHMARK_" + i);
+    }
+  }
+
+  /**
+   * Check of permissions already granted, the path followed by most of the checks done every time
+   * a screen is resumed. Once warmed up it should not allocate any memory when the listener is
+   * notified on the calling thread. Listeners notified on the main thread from any other thread
+   * still cost a dispatcher queue node per check and a message per batch, not measured here
+   */
+  @Benchmark public MultiplePermissionsReport checkGrantedPermissions() {
+    androidPermissionService.setPermissionState(PackageManager.PERMISSION_GRANTED);
+    dexterInstance.checkPermissions(listener, permissions, thread);
+    return listener.getLastReport();
+  }
+
+  /**
+   * Check of permissions the user grants once the inner activity is ready
+   */
+  @Benchmark public MultiplePermissionsReport requestPermissionsGrantedByTheUser() {
+    androidPermissionService.setPermissionState(PackageManager.PERMISSION_DENIED);
+    dexterInstance.checkPermissions(listener, permissions, thread);
+    dexterInstance.onActivityReady(activity);
+    dexterInstance.onPermissionRequestGranted(permissions);
+    permissionStateCache.invalidate();
+    return listener.getLastReport();
+  }
+
+  /**
+   * Check of permissions the user denies once the inner activity is ready. The fake service never
+   * shows a rationale, so the denials are recorded as permanent and have to be forgotten for the
+   * next invocation to go through the system request again
+   */
+  @Benchmark public MultiplePermissionsReport requestPermissionsDeniedByTheUser() {
+    androidPermissionService.setPermissionState(PackageManager.PERMISSION_DENIED);
+    dexterInstance.checkPermissions(listener, permissions, thread);
+    dexterInstance.onActivityReady(activity);
+    dexterInstance.onPermissionRequestDenied(permissions);
+    permissionStateCache.invalidate();
+    for (String permission : permissions) {
+      permissionHistory.forget(permission);
+    }
+    return listener.getLastReport();
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+/**
+ * AndroidPermissionService answering every check with a configurable permission state and
+ * ignoring the requests to the system
+ */
+final class FakeAndroidPermissionService extends AndroidPermissionService {
+
+  private int permissionState = PackageManager.PERMISSION_GRANTED;
+
+  void setPermissionState(int permissionState) {
+    this.permissionState = permissionState;
+  }
+
+  /**
+   * Every permission is checked on its own, as the fake activity has no package information
+   */
+  @Override PermissionSnapshot getPermissionSnapshot(Context context) {
+    return null;
+  }
+
+  @Override int checkSelfPermission(Context context, String permission) {
+    return permissionState;
+  }
+
+  @Override void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+  }
+
+  @Override boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+    return false;
+  }
+}
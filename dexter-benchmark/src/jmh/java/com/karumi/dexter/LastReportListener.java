@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionRequest;
+import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
+import java.util.List;
+
+/**
+ * Listener keeping the last report received and continuing every permission request that needs a
+ * rationale
+ */
+final class LastReportListener implements MultiplePermissionsListener {
+
+  private MultiplePermissionsReport lastReport;
+
+  MultiplePermissionsReport getLastReport() {
+    return lastReport;
+  }
+
+  @Override public void onPermissionsChecked(MultiplePermissionsReport report) {
+    lastReport = report;
+  }
+
+  @Override public void onPermissionRationaleShouldBeShown(List<PermissionRequest> permissions,
+      PermissionToken token) {
+    token.continuePermissionRequest();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionDeniedResponse;
+import com.karumi.dexter.listener.PermissionGrantedResponse;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the construction and the queries of a MultiplePermissionsReport where half of the
+ * permissions are granted and the other half denied
+ */
+@State(Scope.Thread) @BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultiplePermissionsReportBenchmark {
+
+  @Param({ "1", "4", "10" }) int permissionCount;
+
+  private String[] permissions;
+  private MultiplePermissionsReport report;
+
+  @Setup public void setUp() {
+    permissions = new String[permissionCount];
+    for (int i = 0; i < permissionCount; i++) {
+      permissions[i] = "android.permission.BENCHMARK_" + i;
+    }
+    report = buildReport();
+  }
+
+  @Benchmark public MultiplePermissionsReport buildReport() {
+    MultiplePermissionsReport report = new MultiplePermissionsReport();
+    for (int i = 0; i < permissions.length; i++) {
+      if (i % 2 == 0) {
+        report.addGrantedPermissionResponse(PermissionGrantedResponse.from(permissions[i]));
+      } else {
+        report.addDeniedPermissionResponse(PermissionDeniedResponse.from(permissions[i], false));
+      }
+    }
+    return report;
+  }
+
+  @Benchmark public void queryReport(Blackhole blackhole) {
+    for (String permission : permissions) {
+      blackhole.consume(report.isGranted(permission));
+      blackhole.consume(report.isPermanentlyDenied(permission));
+    }
+    blackhole.consume(report.isAnyPermissionPermanentlyDenied());
+  }
+}
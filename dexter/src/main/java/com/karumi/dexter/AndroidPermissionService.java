@@ -17,7 +17,11 @@
 package com.karumi.dexter;
 
 import android.app.Activity;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
@@ -35,6 +39,41 @@ class AndroidPermissionService {
     return ContextCompat.checkSelfPermission(context, permission);
   }
 
+  /**
+   * Reads every permission declared by the application and its state with a single query to the
+   * package manager
+   *
+   * @return The snapshot or null if the package information is not available
+   * @see PackageManager#getPackageInfo
+   */
+  @Nullable PermissionSnapshot getPermissionSnapshot(@Nullable Context context) {
+    if (context == null) {
+      return null;
+    }
+
+    PackageInfo packageInfo;
+    try {
+      packageInfo = context.getPackageManager()
+          .getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+    } catch (PackageManager.NameNotFoundException e) {
+      return null;
+    }
+
+    return PermissionSnapshot.from(packageInfo.requestedPermissions,
+        getRequestedPermissionsFlags(packageInfo));
+  }
+
+  /**
+   * Flags are not available before Jelly Bean, where every permission is granted at install time
+   */
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private int[] getRequestedPermissionsFlags(PackageInfo packageInfo) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      return null;
+    }
+    return packageInfo.requestedPermissionsFlags;
+  }
+
   /**
    * @see ActivityCompat#requestPermissions
    */
@@ -47,6 +86,15 @@ class AndroidPermissionService {
     ActivityCompat.requestPermissions(activity, permissions, requestCode);
   }
 
+  /**
+   * @see android.app.Fragment#requestPermissions
+   */
+  @TargetApi(Build.VERSION_CODES.M)
+  void requestPermissions(@NonNull HostFragment fragment, @NonNull String[] permissions,
+      int requestCode) {
+    fragment.requestPermissions(permissions, requestCode);
+  }
+
   /**
    * @see ActivityCompat#shouldShowRequestPermissionRationale
    */
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Observer of the application activities lifecycle used to invalidate the cached permission
+ * states every time the application comes back to the foreground. Users can revoke or grant
+ * permissions from the system settings while the application is in the background. It also lets
+ * Dexter release the activities it references once they are destroyed.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+final class AppForegroundObserver implements Application.ActivityLifecycleCallbacks {
+
+  private final PermissionStateCache permissionStateCache;
+  private int startedActivities;
+
+  AppForegroundObserver(PermissionStateCache permissionStateCache) {
+    this.permissionStateCache = permissionStateCache;
+  }
+
+  /**
+   * Starts observing the lifecycle of the application the given context belongs to. Lifecycle
+   * callbacks are not available before Ice Cream Sandwich, where runtime permissions do not exist
+   * and the cached states can not change.
+   */
+  void register(Context context) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH || context == null) {
+      return;
+    }
+
+    Context applicationContext = context.getApplicationContext();
+    if (applicationContext instanceof Application) {
+      ((Application) applicationContext).registerActivityLifecycleCallbacks(this);
+    }
+  }
+
+  @Override public void onActivityStarted(Activity activity) {
+    if (startedActivities++ == 0) {
+      permissionStateCache.invalidate();
+    }
+  }
+
+  @Override public void onActivityStopped(Activity activity) {
+    if (startedActivities > 0) {
+      startedActivities--;
+    }
+  }
+
+  @Override public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+  }
+
+  @Override public void onActivityResumed(Activity activity) {
+  }
+
+  @Override public void onActivityPaused(Activity activity) {
+  }
+
+  @Override public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+  }
+
+  @Override public void onActivityDestroyed(Activity activity) {
+    Dexter.onActivityDestroyed(activity);
+  }
+}
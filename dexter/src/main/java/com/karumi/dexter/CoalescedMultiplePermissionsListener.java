@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionDeniedResponse;
+import com.karumi.dexter.listener.PermissionGrantedResponse;
+import com.karumi.dexter.listener.PermissionRequest;
+import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Listener used to dispatch the result of a set of coalesced permission requests, resolved
+ * through a single system request, back to each one of the original callers. Every listener is
+ * notified only with the permissions it asked for. Instances are immutable, so they can be shared
+ * by the states of a {@link DexterInstance}.
+ */
+final class CoalescedMultiplePermissionsListener implements MultiplePermissionsListener {
+
+  private final List<MultiplePermissionsListener> listeners;
+  private final List<PermissionSet> requestedPermissions;
+
+  CoalescedMultiplePermissionsListener() {
+    this(Collections.<MultiplePermissionsListener>emptyList(),
+        Collections.<PermissionSet>emptyList());
+  }
+
+  CoalescedMultiplePermissionsListener(MultiplePermissionsListener listener,
+      PermissionSet permissions) {
+    this(Collections.singletonList(listener), Collections.singletonList(permissions));
+  }
+
+  private CoalescedMultiplePermissionsListener(List<MultiplePermissionsListener> listeners,
+      List<PermissionSet> requestedPermissions) {
+    this.listeners = listeners;
+    this.requestedPermissions = requestedPermissions;
+  }
+
+  /**
+   * Returns a copy of this listener also notifying the given one about the given permissions
+   */
+  CoalescedMultiplePermissionsListener with(MultiplePermissionsListener listener,
+      PermissionSet permissions) {
+    List<MultiplePermissionsListener> listeners = new ArrayList<>(this.listeners);
+    listeners.add(listener);
+    List<PermissionSet> requestedPermissions = new ArrayList<>(this.requestedPermissions);
+    requestedPermissions.add(permissions);
+    return new CoalescedMultiplePermissionsListener(listeners, requestedPermissions);
+  }
+
+  /**
+   * Notifies every listener with a report containing only the permissions it requested
+   *
+   * @param report In detail report with all the coalesced permissions
+   */
+  @Override public void onPermissionsChecked(MultiplePermissionsReport report) {
+    if (listeners.size() == 1) {
+      listeners.get(0).onPermissionsChecked(report);
+      return;
+    }
+
+    for (int i = 0; i < listeners.size(); i++) {
+      PermissionSet permissions = requestedPermissions.get(i);
+      MultiplePermissionsReport listenerReport = new MultiplePermissionsReport();
+      for (PermissionGrantedResponse response : report.getGrantedPermissionResponses()) {
+        if (permissions.contains(response.getPermissionName())) {
+          listenerReport.addGrantedPermissionResponse(response);
+        }
+      }
+      for (PermissionDeniedResponse response : report.getDeniedPermissionResponses()) {
+        if (permissions.contains(response.getPermissionName())) {
+          listenerReport.addDeniedPermissionResponse(response);
+        }
+      }
+      listeners.get(i).onPermissionsChecked(listenerReport);
+    }
+  }
+
+  /**
+   * Asks every listener interested in any of the given permissions to show a rationale. The token
+   * is shared among all of them so the first listener using it decides for every coalesced
+   * request.
+   *
+   * @param permissions The permissions that has been requested. Collections of values found in
+   * {@link android.Manifest.permission}
+   * @param token Token used to continue or cancel the permission request process
+   */
+  @Override public void onPermissionRationaleShouldBeShown(List<PermissionRequest> permissions,
+      PermissionToken token) {
+    if (listeners.size() == 1) {
+      listeners.get(0).onPermissionRationaleShouldBeShown(permissions, token);
+      return;
+    }
+
+    for (int i = 0; i < listeners.size(); i++) {
+      PermissionSet requested = requestedPermissions.get(i);
+      List<PermissionRequest> listenerPermissions = new ArrayList<>();
+      for (PermissionRequest permission : permissions) {
+        if (requested.contains(permission.getName())) {
+          listenerPermissions.add(permission);
+        }
+      }
+      if (!listenerPermissions.isEmpty()) {
+        listeners.get(i).onPermissionRationaleShouldBeShown(listenerPermissions, token);
+      }
+    }
+  }
+}
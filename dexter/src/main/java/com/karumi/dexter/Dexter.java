@@ -17,18 +17,26 @@
 package com.karumi.dexter;
 
 import com.karumi.dexter.listener.EmptyPermissionRequestErrorListener;
+import com.karumi.dexter.listener.EmptyPermissionRequestMetricsListener;
 import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import com.karumi.dexter.listener.PermissionRequestMetricsListener;
 import com.karumi.dexter.listener.multi.EmptyMultiplePermissionsListener;
 import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
 import com.karumi.dexter.listener.single.PermissionListener;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.pm.PackageManager;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Class to simplify the management of Android runtime permissions
@@ -39,43 +47,66 @@ public final class Dexter
     implements DexterBuilder, DexterBuilder.Permission, DexterBuilder.SinglePermissionListener,
     DexterBuilder.MultiPermissionListener {
 
+  private static final Map<Integer, DexterInstance> hostInstances = new ConcurrentHashMap<>();
   private static DexterInstance instance;
+  private static PermissionStateCache permissionStateCache;
+  private static PermissionHistory permissionHistory;
 
-  private Collection<String> permissions;
-  private MultiplePermissionsListener listener = new EmptyMultiplePermissionsListener();
+  private final DexterInstance hostInstance;
+
+  private PermissionSet permissions;
+  private MultiplePermissionsListener listener;
   private PermissionRequestErrorListener errorListener = new EmptyPermissionRequestErrorListener();
+  private PermissionRequestMetricsListener metricsListener =
+      new EmptyPermissionRequestMetricsListener();
   private boolean shouldExecuteOnSameThread = false;
+  private boolean shouldExecuteOnIdleMainThread = false;
+  private Executor executor;
+  private long timeoutMillis;
 
   private Dexter(Activity activity) {
-    initialize(activity);
+    hostInstance = getHostInstance(activity);
   }
 
   public static DexterBuilder.Permission withActivity(Activity activity) {
     return new Dexter(activity);
   }
 
+  /**
+   * Opens a session to request several sets of permissions in a row. The inner activity is kept
+   * alive between the requests of the session and finished when the session is closed.
+   *
+   * @param activity Activity used by Dexter
+   */
+  public static DexterSession openSession(Activity activity) {
+    DexterInstance hostInstance = getHostInstance(activity);
+    hostInstance.openSession();
+    return new DexterSession(activity, hostInstance);
+  }
+
   @Override public DexterBuilder.SinglePermissionListener withPermission(String permission) {
-    permissions = Collections.singletonList(permission);
+    permissions = new PermissionSet();
+    permissions.add(permission);
     return this;
   }
 
   @Override public DexterBuilder.MultiPermissionListener withPermissions(String... permissions) {
-    this.permissions = Arrays.asList(permissions);
+    this.permissions = new PermissionSet(Arrays.asList(permissions));
     return this;
   }
 
   @Override
   public DexterBuilder.MultiPermissionListener withPermissions(Collection<String> permissions) {
-    this.permissions = new ArrayList<>(permissions);
+    this.permissions = new PermissionSet(permissions);
     return this;
   }
 
   @Override public void continueRequestingPendingPermissions(PermissionListener listener) {
-    instance.continuePendingRequestIfPossible(listener, ThreadFactory.makeMainThread());
+    hostInstance.continuePendingRequestIfPossible(listener, ThreadFactory.makeMainThread());
   }
 
   @Override public void continueRequestingPendingPermissions(MultiplePermissionsListener listener) {
-    instance.continuePendingRequestsIfPossible(listener, ThreadFactory.makeMainThread());
+    hostInstance.continuePendingRequestsIfPossible(listener, ThreadFactory.makeMainThread());
   }
 
   @Override public DexterBuilder withListener(PermissionListener listener) {
@@ -93,25 +124,82 @@ public final class Dexter
     return this;
   }
 
+  @Override public DexterBuilder onIdleMainThread() {
+    shouldExecuteOnIdleMainThread = true;
+    return this;
+  }
+
+  @Override public DexterBuilder withExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  @Override public DexterBuilder withTimeout(long timeout, TimeUnit unit) {
+    this.timeoutMillis = unit.toMillis(timeout);
+    return this;
+  }
+
   @Override public DexterBuilder withErrorListener(PermissionRequestErrorListener errorListener) {
     this.errorListener = errorListener;
     return this;
   }
 
+  @Override public DexterBuilder withMetricsListener(
+      PermissionRequestMetricsListener metricsListener) {
+    this.metricsListener = metricsListener;
+    return this;
+  }
+
   @Override public void check() {
     try {
       Thread thread = getThread();
-      instance.checkPermissions(listener, permissions, thread);
+      hostInstance.checkPermissions(getListener(), permissions, thread, metricsListener,
+          errorListener, timeoutMillis);
     } catch (DexterException e) {
       errorListener.onError(e.error);
     }
   }
 
+  @Override public PermissionCheckFuture checkAsync() {
+    return checkAsync(getThread(), errorListener);
+  }
+
+  @Override public MultiplePermissionsReport checkBlocking(long timeout, TimeUnit unit)
+      throws InterruptedException, TimeoutException {
+    if (ThreadFactory.runningMainThread()) {
+      throw new IllegalStateException("checkBlocking can't be called from the main thread");
+    }
+
+    Thread thread = executor != null
+        ? ThreadFactory.makeExecutorThread(executor) : ThreadFactory.makeMainThread();
+    return checkAsync(thread, new EmptyPermissionRequestErrorListener()).getOrCancel(timeout, unit);
+  }
+
+  /**
+   * Starts the request behind a future. Blocking checks report their failures only by throwing
+   * them, so they pass an empty error listener
+   */
+  private PermissionCheckFuture checkAsync(Thread thread,
+      PermissionRequestErrorListener errorListener) {
+    PermissionCheckFuture future = new PermissionCheckFuture();
+    future.start(hostInstance, listener, permissions, thread, metricsListener, errorListener,
+        timeoutMillis);
+    return future;
+  }
+
+  private MultiplePermissionsListener getListener() {
+    return listener != null ? listener : new EmptyMultiplePermissionsListener();
+  }
+
   private Thread getThread() {
     Thread thread;
 
-    if (shouldExecuteOnSameThread) {
+    if (executor != null) {
+      thread = ThreadFactory.makeExecutorThread(executor);
+    } else if (shouldExecuteOnSameThread) {
       thread = ThreadFactory.makeSameThread();
+    } else if (shouldExecuteOnIdleMainThread) {
+      thread = ThreadFactory.makeIdleMainThread();
     } else {
       thread = ThreadFactory.makeMainThread();
     }
@@ -129,9 +217,7 @@ public final class Dexter
    */
   @Deprecated public static void initialize(Context context) {
     if (instance == null) {
-      AndroidPermissionService androidPermissionService = new AndroidPermissionService();
-      IntentProvider intentProvider = new IntentProvider();
-      instance = new DexterInstance(context, androidPermissionService, intentProvider);
+      instance = createInstance(context);
     }
   }
 
@@ -144,9 +230,7 @@ public final class Dexter
    */
   @Deprecated public static void initialize(Activity activity) {
     if (instance == null) {
-      AndroidPermissionService androidPermissionService = new AndroidPermissionService();
-      IntentProvider intentProvider = new IntentProvider();
-      instance = new DexterInstance(activity, androidPermissionService, intentProvider);
+      instance = createInstance(activity);
     } else {
       instance.updateContext(activity);
     }
@@ -159,12 +243,13 @@ public final class Dexter
    */
   @Deprecated public static void clearInstance() {
     instance = null;
+    hostInstances.clear();
   }
 
   /**
    * Checks the permission and notifies the listener of its state.
    * It is important to note that permissions still have to be declared in the manifest.
-   * Calling this method will result in an exception if {@link #isRequestOngoing()} returns true.
+   * If {@link #isRequestOngoing()} returns true the request is queued until the previous ones end.
    * All listener methods are called on the same thread that fired the permission request.
    *
    * @param listener The class that will be reported when the state of the permission is ready
@@ -180,7 +265,7 @@ public final class Dexter
   /**
    * Checks the permission and notifies the listener of its state.
    * It is important to note that permissions still have to be declared in the manifest.
-   * Calling this method will result in an exception if {@link #isRequestOngoing()} returns true.
+   * If {@link #isRequestOngoing()} returns true the request is queued until the previous ones end.
    * All listener methods are called on the main thread that fired the permission request.
    *
    * @param listener The class that will be reported when the state of the permission is ready
@@ -195,7 +280,7 @@ public final class Dexter
   /**
    * Checks the permissions and notifies the listener of its state.
    * It is important to note that permissions still have to be declared in the manifest.
-   * Calling this method will result in an exception if {@link #isRequestOngoing()} returns true.
+   * If {@link #isRequestOngoing()} returns true the request is queued until the previous ones end.
    * All listener methods are called on the same thread that fired the permission request.
    *
    * @param listener The class that will be reported when the state of the permissions are ready
@@ -211,7 +296,7 @@ public final class Dexter
   /**
    * Checks the permissions and notifies the listener of its state.
    * It is important to note that permissions still have to be declared in the manifest.
-   * Calling this method will result in an exception if {@link #isRequestOngoing()} returns true.
+   * If {@link #isRequestOngoing()} returns true the request is queued until the previous ones end.
    * All listener methods are called on the main thread that fired the permission request.
    *
    * @param listener The class that will be reported when the state of the permissions are ready
@@ -240,8 +325,7 @@ public final class Dexter
 
   /**
    * Checks is there is any permission request still ongoing.
-   * If so, state of permissions must not be checked until it is resolved
-   * or it will cause an exception.
+   * If so, new permission requests are queued until it is resolved.
    *
    * @deprecated
    */
@@ -250,6 +334,64 @@ public final class Dexter
     return instance.isRequestOngoing();
   }
 
+  /**
+   * Returns the state of every permission declared in the application manifest. The package
+   * manager is queried once each time the application comes back to the foreground, so checking
+   * several permissions against the returned snapshot does not perform any other call to the
+   * system.
+   *
+   * @param context Any context of the application
+   */
+  public static PermissionSnapshot getPermissionSnapshot(Context context) {
+    return getPermissionStateCache(context).getSnapshot(context);
+  }
+
+  /**
+   * Returns the decisions taken by the user every time a permission has been requested through
+   * Dexter. The history is kept across application launches and can be queried from any thread.
+   *
+   * @param context Any context of the application
+   */
+  public static synchronized PermissionHistory getPermissionHistory(Context context) {
+    if (permissionHistory == null) {
+      permissionHistory = PermissionHistory.inFilesDir(context.getApplicationContext(),
+          Executors.newSingleThreadExecutor(new java.util.concurrent.ThreadFactory() {
+            @Override public java.lang.Thread newThread(Runnable runnable) {
+              java.lang.Thread thread = new java.lang.Thread(runnable, "Dexter history");
+              thread.setDaemon(true);
+              return thread;
+            }
+          }));
+    }
+    return permissionHistory;
+  }
+
+  /**
+   * Returns the number of permission requests waiting for the ongoing one to finish.
+   */
+  public static int getQueuedRequestCount() {
+    DexterInstance instance = Dexter.instance;
+    int queuedRequestCount = instance != null ? instance.getQueuedRequestCount() : 0;
+    for (DexterInstance hostInstance : hostInstances.values()) {
+      if (hostInstance != instance) {
+        queuedRequestCount += hostInstance.getQueuedRequestCount();
+      }
+    }
+    return queuedRequestCount;
+  }
+
+  /**
+   * Returns how long, in milliseconds, the oldest queued permission request has been waiting for
+   * the previous ones to finish.
+   */
+  public static long getQueuedRequestWaitTime() {
+    long waitTime = instance != null ? instance.getQueuedRequestWaitTime(TimeUnit.MILLISECONDS) : 0;
+    for (DexterInstance hostInstance : hostInstances.values()) {
+      waitTime = Math.max(waitTime, hostInstance.getQueuedRequestWaitTime(TimeUnit.MILLISECONDS));
+    }
+    return waitTime;
+  }
+
   /**
    * Requests pending permissions if there were permissions lost. This method can be used to
    * recover the Dexter state during a configuration change, for example when the device is
@@ -275,6 +417,59 @@ public final class Dexter
     instance.continuePendingRequestIfPossible(listener, ThreadFactory.makeMainThread());
   }
 
+  /**
+   * Returns the instance handling the requests of the task the activity belongs to, so flows
+   * started from different tasks, for example in multi-window mode, run concurrently. The
+   * instance is kept while the task is alive so pending requests survive configuration changes.
+   * It also becomes the instance used by the deprecated static methods, as the single instance
+   * did before.
+   */
+  private static synchronized DexterInstance getHostInstance(Activity activity) {
+    int hostKey = activity.getTaskId();
+    if (hostKey == IntentProvider.NO_HOST_KEY) {
+      initialize(activity);
+      return instance;
+    }
+
+    DexterInstance hostInstance = hostInstances.get(hostKey);
+    if (hostInstance == null) {
+      hostInstance = createInstance(activity, new IntentProvider(hostKey));
+      hostInstances.put(hostKey, hostInstance);
+    } else {
+      hostInstance.updateContext(activity);
+    }
+    instance = hostInstance;
+    return hostInstance;
+  }
+
+  /**
+   * Returns the instance that started the inner activity or null if it does not exist anymore
+   */
+  private static DexterInstance getRoutedInstance(int hostKey) {
+    if (hostKey == IntentProvider.NO_HOST_KEY) {
+      return instance;
+    }
+    return hostInstances.get(hostKey);
+  }
+
+  private static DexterInstance createInstance(Context context) {
+    return createInstance(context, new IntentProvider());
+  }
+
+  private static DexterInstance createInstance(Context context, IntentProvider intentProvider) {
+    return new DexterInstance(context, new AndroidPermissionService(),
+        getPermissionStateCache(context), getPermissionHistory(context), intentProvider,
+        new HostFragmentProvider(), ThreadFactory.makeMainThread());
+  }
+
+  private static synchronized PermissionStateCache getPermissionStateCache(Context context) {
+    if (permissionStateCache == null) {
+      permissionStateCache = new PermissionStateCache(new AndroidPermissionService());
+      new AppForegroundObserver(permissionStateCache).register(context);
+    }
+    return permissionStateCache;
+  }
+
   @Deprecated private static void checkInstanceNotNull() {
     if (instance == null) {
       throw new NullPointerException("context == null \n Must call \"initialize\" on Dexter");
@@ -283,23 +478,79 @@ public final class Dexter
 
   /**
    * Method called whenever the DexterActivity has been created or recreated and is ready to be
-   * used.
+   * used. If the instance that started it does not exist anymore, for example because the process
+   * was restarted, the activity is finished.
    */
   static void onActivityReady(Activity activity) {
-    instance.onActivityReady(activity);
+    DexterInstance routedInstance =
+        getRoutedInstance(IntentProvider.getHostKey(activity.getIntent()));
+    if (routedInstance != null) {
+      routedInstance.onActivityReady(activity);
+    } else {
+      activity.finish();
+    }
+  }
+
+  /**
+   * Method called whenever any activity of the application is destroyed. The instances referencing
+   * it stop doing so, and the instance of its task is released unless a request or a session still
+   * needs it, so the activity can be garbage collected.
+   */
+  static synchronized void onActivityDestroyed(Activity activity) {
+    Iterator<DexterInstance> iterator = hostInstances.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().onActivityDestroyed(activity)) {
+        iterator.remove();
+      }
+    }
+    if (instance != null) {
+      instance.onActivityDestroyed(activity);
+    }
+  }
+
+  /**
+   * Method called whenever a DexterFragment has been attached to an activity and is ready to be
+   * used. If the instance that attached it does not exist anymore the fragment is removed.
+   */
+  static void onFragmentReady(DexterFragment fragment) {
+    DexterInstance routedInstance = getRoutedInstance(fragment.getHostKey());
+    if (routedInstance != null) {
+      routedInstance.onFragmentReady(fragment);
+    } else {
+      fragment.remove();
+    }
   }
 
   /**
    * Method called when all the permissions has been requested to the user
    *
-   * @param grantedPermissions Collection with all the permissions the user has granted. Contains
-   * values from {@link android.Manifest.permission}
-   * @param deniedPermissions Collection with all the permissions the user has denied. Contains
-   * values from {@link android.Manifest.permission}
+   * @param hostKey Key of the instance that started the DexterActivity or the DexterFragment
+   * requesting the permissions
+   * @param requestCode Code the permissions were requested with
+   * @param permissions The requested permissions. Contains values from
+   * {@link android.Manifest.permission}
+   * @param grantResults The result of every requested permission, either
+   * {@link PackageManager#PERMISSION_GRANTED} or {@link PackageManager#PERMISSION_DENIED}
    */
-  static void onPermissionsRequested(Collection<String> grantedPermissions,
-      Collection<String> deniedPermissions) {
-    instance.onPermissionRequestGranted(grantedPermissions);
-    instance.onPermissionRequestDenied(deniedPermissions);
+  static void onPermissionsRequested(int hostKey, int requestCode, String[] permissions,
+      int[] grantResults) {
+    DexterInstance routedInstance = getRoutedInstance(hostKey);
+    if (routedInstance == null) {
+      return;
+    }
+
+    Collection<String> grantedPermissions = new PermissionSet();
+    Collection<String> deniedPermissions = new PermissionSet();
+
+    for (int i = 0; i < permissions.length; i++) {
+      String permission = permissions[i];
+      if (grantResults[i] == PackageManager.PERMISSION_DENIED) {
+        deniedPermissions.add(permission);
+      } else {
+        grantedPermissions.add(permission);
+      }
+    }
+
+    routedInstance.onPermissionsRequested(requestCode, grantedPermissions, deniedPermissions);
   }
 }
\ No newline at end of file
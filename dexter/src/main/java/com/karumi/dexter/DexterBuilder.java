@@ -18,18 +18,35 @@
 package com.karumi.dexter;
 
 import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import com.karumi.dexter.listener.PermissionRequestMetricsListener;
 import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
 import com.karumi.dexter.listener.single.PermissionListener;
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public interface DexterBuilder {
 
   DexterBuilder onSameThread();
 
+  DexterBuilder onIdleMainThread();
+
+  DexterBuilder withExecutor(Executor executor);
+
   DexterBuilder withErrorListener(PermissionRequestErrorListener errorListener);
 
+  DexterBuilder withTimeout(long timeout, TimeUnit unit);
+
+  DexterBuilder withMetricsListener(PermissionRequestMetricsListener metricsListener);
+
   void check();
 
+  PermissionCheckFuture checkAsync();
+
+  MultiplePermissionsReport checkBlocking(long timeout, TimeUnit unit)
+      throws InterruptedException, TimeoutException;
+
   interface Permission {
     DexterBuilder.SinglePermissionListener withPermission(String permission);
 
@@ -44,9 +61,19 @@ public interface DexterBuilder {
 
   interface SinglePermissionListener {
     DexterBuilder withListener(PermissionListener listener);
+
+    PermissionCheckFuture checkAsync();
+
+    MultiplePermissionsReport checkBlocking(long timeout, TimeUnit unit)
+        throws InterruptedException, TimeoutException;
   }
 
   interface MultiPermissionListener {
     DexterBuilder withListener(MultiplePermissionsListener listener);
+
+    PermissionCheckFuture checkAsync();
+
+    MultiplePermissionsReport checkBlocking(long timeout, TimeUnit unit)
+        throws InterruptedException, TimeoutException;
   }
 }
\ No newline at end of file
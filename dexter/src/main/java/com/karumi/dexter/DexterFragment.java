@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.app.FragmentTransaction;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+/**
+ * Headless fragment attached to the activity Dexter has been called with. Permissions are
+ * requested through it so there is no need to launch {@link DexterActivity}. The fragment is
+ * retained across configuration changes, so an ongoing request survives the activity recreation.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public final class DexterFragment extends Fragment implements HostFragment {
+
+  private static final String TAG = "com.karumi.dexter.DexterFragment";
+
+  /**
+   * Attaches a new fragment to the activity replacing any previous one
+   *
+   * @param hostKey Key used to route the fragment back to the instance attaching it
+   */
+  static void attach(final Activity activity, int hostKey) {
+    Bundle arguments = new Bundle();
+    arguments.putInt(IntentProvider.EXTRA_HOST_KEY, hostKey);
+    final DexterFragment fragment = new DexterFragment();
+    fragment.setArguments(arguments);
+
+    activity.runOnUiThread(new Runnable() {
+      @Override public void run() {
+        FragmentManager fragmentManager = activity.getFragmentManager();
+        FragmentTransaction transaction = fragmentManager.beginTransaction();
+        Fragment previousFragment = fragmentManager.findFragmentByTag(TAG);
+        if (previousFragment != null) {
+          transaction.remove(previousFragment);
+        }
+        transaction.add(fragment, TAG).commitAllowingStateLoss();
+      }
+    });
+  }
+
+  @Override public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setRetainInstance(true);
+  }
+
+  @Override public void onAttach(Context context) {
+    super.onAttach(context);
+    Dexter.onFragmentReady(this);
+  }
+
+  @Override public void onRequestPermissionsResult(int requestCode, String[] permissions,
+      int[] grantResults) {
+    Dexter.onPermissionsRequested(getHostKey(), requestCode, permissions, grantResults);
+  }
+
+  /**
+   * Returns the key of the instance that attached the fragment
+   */
+  int getHostKey() {
+    Bundle arguments = getArguments();
+    return arguments != null
+        ? arguments.getInt(IntentProvider.EXTRA_HOST_KEY, IntentProvider.NO_HOST_KEY)
+        : IntentProvider.NO_HOST_KEY;
+  }
+
+  @Override public void remove() {
+    final Activity activity = getActivity();
+    if (activity == null) {
+      return;
+    }
+
+    activity.runOnUiThread(new Runnable() {
+      @Override public void run() {
+        FragmentManager fragmentManager = getFragmentManager();
+        if (fragmentManager != null) {
+          fragmentManager.beginTransaction().remove(DexterFragment.this)
+              .commitAllowingStateLoss();
+        }
+      }
+    });
+  }
+}
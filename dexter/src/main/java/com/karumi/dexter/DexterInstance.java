@@ -17,10 +17,14 @@
 package com.karumi.dexter;
 
 import com.karumi.dexter.listener.DexterError;
+import com.karumi.dexter.listener.EmptyPermissionRequestErrorListener;
+import com.karumi.dexter.listener.EmptyPermissionRequestMetricsListener;
 import com.karumi.dexter.listener.PermissionDeniedResponse;
 import com.karumi.dexter.listener.PermissionGrantedResponse;
 import com.karumi.dexter.listener.PermissionRequest;
-import com.karumi.dexter.listener.multi.EmptyMultiplePermissionsListener;
+import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import com.karumi.dexter.listener.PermissionRequestMetricsListener;
+import com.karumi.dexter.listener.PermissionRequestPhase;
 import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
 import com.karumi.dexter.listener.single.PermissionListener;
 
@@ -29,47 +33,88 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Inner implementation of a dexter instance holding the state of the permissions request
  */
 final class DexterInstance {
 
-  private static final int PERMISSIONS_REQUEST_CODE = 42;
-  private static final MultiplePermissionsListener EMPTY_LISTENER =
-      new EmptyMultiplePermissionsListener();
+  private static final PermissionRequestMetricsListener EMPTY_METRICS_LISTENER =
+      new EmptyPermissionRequestMetricsListener();
+  private static final PermissionRequestErrorListener EMPTY_ERROR_LISTENER =
+      new EmptyPermissionRequestErrorListener();
+  private static final int MAX_GRANTED_REPORTS = 32;
+  private static final int NO_REQUEST_ID = -1;
 
-  private Context context;
+  private static ScheduledExecutorService timeoutExecutor;
+
+  private final AtomicReference<Context> context;
   
   private final AndroidPermissionService androidPermissionService;
+  private final PermissionStateCache permissionStateCache;
+  private final PermissionHistory permissionHistory;
   private final IntentProvider intentProvider;
-  private final Collection<String> pendingPermissions;
-  private final MultiplePermissionsReport multiplePermissionsReport;
-  private final AtomicBoolean isRequestingPermission;
-  private final AtomicBoolean rationaleAccepted;
-  private final AtomicBoolean isShowingNativeDialog;
-  private final Object pendingPermissionsMutex = new Object();
+  private final HostFragmentProvider hostFragmentProvider;
+  private final Thread mainThread;
+  private final RequestQueue requestQueue;
+  private final RequestCodeAllocator requestCodeAllocator;
+  private final List<DexterRequest> activeRequests;
+  private final AtomicReference<RequestState> state;
+  private final Map<PermissionSet, MultiplePermissionsReport> grantedReports;
+  private final GrantedRequestDispatcher grantedRequestDispatcher;
+  private final AtomicInteger openSessionCount;
+  private final AtomicReference<Activity> sessionHost;
+  private final AtomicReference<HostFragment> hostFragment;
+  private final Object requestQueueMutex = new Object();
 
-  private Activity activity;
-  private MultiplePermissionsListener listener = EMPTY_LISTENER;
+  DexterInstance(Context context, AndroidPermissionService androidPermissionService,
+      IntentProvider intentProvider) {
+    this(context, androidPermissionService, new PermissionStateCache(androidPermissionService),
+        new PermissionHistory(null, null), intentProvider);
+  }
 
   DexterInstance(Context context, AndroidPermissionService androidPermissionService,
+      PermissionStateCache permissionStateCache, PermissionHistory permissionHistory,
       IntentProvider intentProvider) {
-    this.context = context;
+    this(context, androidPermissionService, permissionStateCache, permissionHistory,
+        intentProvider, new HostFragmentProvider(), ThreadFactory.makeMainThread());
+  }
+
+  DexterInstance(Context context, AndroidPermissionService androidPermissionService,
+      PermissionStateCache permissionStateCache, PermissionHistory permissionHistory,
+      IntentProvider intentProvider, HostFragmentProvider hostFragmentProvider,
+      Thread mainThread) {
+    this.context = new AtomicReference<>(context);
     
     this.androidPermissionService = androidPermissionService;
+    this.permissionStateCache = permissionStateCache;
+    this.permissionHistory = permissionHistory;
     this.intentProvider = intentProvider;
-    this.pendingPermissions = new TreeSet<>();
-    this.multiplePermissionsReport = new MultiplePermissionsReport();
-    this.isRequestingPermission = new AtomicBoolean();
-    this.rationaleAccepted = new AtomicBoolean();
-    this.isShowingNativeDialog = new AtomicBoolean();
+    this.hostFragmentProvider = hostFragmentProvider;
+    this.mainThread = mainThread;
+    this.requestQueue = new RequestQueue();
+    this.requestCodeAllocator = new RequestCodeAllocator();
+    this.activeRequests = new CopyOnWriteArrayList<>();
+    this.state = new AtomicReference<>(RequestState.IDLE);
+    this.grantedReports = new ConcurrentHashMap<>();
+    this.grantedRequestDispatcher = new GrantedRequestDispatcher();
+    this.openSessionCount = new AtomicInteger();
+    this.sessionHost = new AtomicReference<>();
+    this.hostFragment = new AtomicReference<>();
   }
 
   /**
@@ -80,7 +125,10 @@ final class DexterInstance {
    * @param thread thread the Listener methods will be called on
    */
   void checkPermission(PermissionListener listener, String permission, Thread thread) {
-    checkSinglePermission(listener, permission, thread);
+    MultiplePermissionsListener adapter =
+        new MultiplePermissionsListenerToPermissionListenerAdapter(listener);
+    checkMultiplePermissions(adapter, Collections.singleton(permission), thread,
+        EMPTY_METRICS_LISTENER, EMPTY_ERROR_LISTENER, 0);
   }
 
   /**
@@ -93,7 +141,60 @@ final class DexterInstance {
    */
   void checkPermissions(MultiplePermissionsListener listener, Collection<String> permissions,
       Thread thread) {
-    checkMultiplePermissions(listener, permissions, thread);
+    checkMultiplePermissions(listener, permissions, thread, EMPTY_METRICS_LISTENER,
+        EMPTY_ERROR_LISTENER, 0);
+  }
+
+  /**
+   * Checks the state of a collection of permissions reporting their state to the listener when all
+   * of them are resolved and every phase of the request to the metrics listener
+   *
+   * @param listener The class that will be reported when the state of all the permissions is ready
+   * @param permissions Array of values found in {@link android.Manifest.permission}
+   * @param thread thread the Listener methods will be called on
+   * @param metricsListener The class that will be reported when the request reaches a new phase
+   * @param errorListener The class that will be reported if the request is cancelled or times out
+   * @param timeoutMillis Time the request has to finish, queued time included, or 0 to wait
+   * forever
+   * @return The id of the request, used to cancel it
+   */
+  int checkPermissions(MultiplePermissionsListener listener, Collection<String> permissions,
+      Thread thread, PermissionRequestMetricsListener metricsListener,
+      PermissionRequestErrorListener errorListener, long timeoutMillis) {
+    return checkMultiplePermissions(listener, permissions, thread, metricsListener, errorListener,
+        timeoutMillis);
+  }
+
+  /**
+   * Cancels the request with the given id if it has not finished yet. Its error listener is
+   * notified with {@link DexterError#REQUEST_CANCELLED} and its listener is never notified. The
+   * request is cancelled on the main thread, where the ongoing request is processed.
+   */
+  void cancelRequest(final int requestId) {
+    mainThread.execute(new Runnable() {
+      @Override public void run() {
+        cancelRequestOnMainThread(requestId);
+      }
+    });
+  }
+
+  private void cancelRequestOnMainThread(int requestId) {
+    DexterRequest request;
+    synchronized (requestQueueMutex) {
+      request = requestQueue.get(requestId);
+    }
+
+    if (request == null) {
+      for (DexterRequest activeRequest : activeRequests) {
+        if (activeRequest.getId() == requestId) {
+          request = activeRequest;
+        }
+      }
+    }
+
+    if (request != null) {
+      cancelRequest(request, DexterError.REQUEST_CANCELLED);
+    }
   }
 
   /**
@@ -108,14 +209,30 @@ final class DexterInstance {
 
   /**
    * Check if there are some permissions pending to be confirmed by the user and restarts the
-   * request for permission process.
+   * request for permission process. The listener is added to the ones of the ongoing request,
+   * which are still notified and finished as usual. If the request is waiting for a rationale,
+   * only the new listener is asked to show it, as the previous ones have already been asked.
    */
   void continuePendingRequestsIfPossible(MultiplePermissionsListener listener, Thread thread) {
-    if (!pendingPermissions.isEmpty()) {
-      this.listener = new MultiplePermissionListenerThreadDecorator(listener, thread);
-      if (!rationaleAccepted.get()) {
-        onActivityReady(activity);
+    MultiplePermissionsListener threadListener =
+        new MultiplePermissionListenerThreadDecorator(listener, thread);
+    RequestState currentState;
+    do {
+      currentState = state.get();
+      if (currentState.getPendingPermissions().isEmpty()) {
+        return;
       }
+    } while (!state.compareAndSet(currentState, currentState.withListener(
+        currentState.getListener().with(threadListener,
+            new PermissionSet(currentState.getPendingPermissions())))));
+
+    if (currentState.is(RequestState.Stage.AWAITING_RATIONALE)) {
+      List<PermissionRequest> rationalePermissions =
+          getRationalePermissions(currentState.getPendingPermissions(), currentState.getActivity());
+      threadListener.onPermissionRationaleShouldBeShown(rationalePermissions,
+          new PermissionRationaleToken(this, currentState.getRequestId()));
+    } else if (!currentState.is(RequestState.Stage.AWAITING_SYSTEM)) {
+      onActivityReady(currentState.getActivity());
     }
   }
 
@@ -124,25 +241,70 @@ final class DexterInstance {
    * used.
    */
   void onActivityReady(Activity activity) {
-    this.activity = activity;
-
-    PermissionStates permissionStates = null;
-    synchronized (pendingPermissionsMutex) {
-      if (activity != null) {
-        permissionStates = getPermissionStates(pendingPermissions);
+    RequestState currentState;
+    do {
+      currentState = state.get();
+      if (activity != null && currentState.is(RequestState.Stage.IDLE)) {
+        finishActivityUnlessSessionIsOpen(activity);
+        return;
       }
+    } while (!state.compareAndSet(currentState, currentState.withActivity(activity)));
+
+    if (activity == null) {
+      return;
     }
 
-    if (permissionStates != null) {
-      handleDeniedPermissions(permissionStates.getDeniedPermissions());
-      updatePermissionsAsGranted(permissionStates.getGrantedPermissions());
+    coalesceOverlappingRequests();
+    onRequestPhase(PermissionRequestPhase.ACTIVITY_READY);
+    PermissionStates permissionStates =
+        getPermissionStates(state.get().getPendingPermissions(), activity, false);
+    handleDeniedPermissions(permissionStates.getDeniedPermissions());
+    updatePermissionsAsGranted(permissionStates.getGrantedPermissions());
+  }
+
+  /**
+   * Method called whenever the DexterFragment has been attached to an activity, which is used as
+   * the inner activity from then on
+   */
+  void onFragmentReady(HostFragment fragment) {
+    hostFragment.set(fragment);
+    onActivityReady(fragment.getActivity());
+  }
+
+  /**
+   * Method called when the system returns the result of a permissions request. Results with a
+   * request code that is not in flight belong to a request that does not exist anymore and are
+   * discarded.
+   *
+   * @param requestCode Code the permissions were requested with
+   */
+  void onPermissionsRequested(int requestCode, Collection<String> grantedPermissions,
+      Collection<String> deniedPermissions) {
+    if (!requestCodeAllocator.release(requestCode)) {
+      return;
     }
+
+    onPermissionsRequested(grantedPermissions, deniedPermissions);
+  }
+
+  /**
+   * Method called when the system returns the result of the ongoing permissions request
+   */
+  void onPermissionsRequested(Collection<String> grantedPermissions,
+      Collection<String> deniedPermissions) {
+    onRequestPhase(PermissionRequestPhase.SYSTEM_DIALOG_RESULT);
+    onPermissionRequestGranted(grantedPermissions);
+    onPermissionRequestDenied(deniedPermissions);
   }
 
   /**
    * Method called whenever the permissions has been granted by the user
    */
   void onPermissionRequestGranted(Collection<String> permissions) {
+    permissionStateCache.onPermissionsGranted(permissions);
+    for (String permission : permissions) {
+      permissionHistory.onPermissionGranted(permission);
+    }
     updatePermissionsAsGranted(permissions);
   }
 
@@ -150,56 +312,185 @@ final class DexterInstance {
    * Method called whenever the permissions has been denied by the user
    */
   void onPermissionRequestDenied(Collection<String> permissions) {
+    permissionStateCache.onPermissionsDenied(permissions);
     updatePermissionsAsDenied(permissions);
   }
 
   /**
    * Method called when the user has been informed with a rationale and agrees to continue
-   * with the permission request process
+   * with the permission request process. Pending permissions are checked again asking the system
+   * instead of the cache, as the user could have granted some of them meanwhile without leaving
+   * the application, and only the ones still denied are requested to the system.
+   *
+   * @param requestId Id of the request the rationale was shown for. The token is ignored if that
+   * request is not waiting for it anymore
    */
-  void onContinuePermissionRequest() {
-    rationaleAccepted.set(true);
-    requestPermissionsToSystem(pendingPermissions);
+  void onContinuePermissionRequest(int requestId) {
+    if (!isAwaitingRationale(requestId)) {
+      return;
+    }
+
+    onRequestPhase(PermissionRequestPhase.RATIONALE_CONTINUED);
+    PermissionStates permissionStates =
+        getPermissionStates(state.get().getPendingPermissions(), context.get(), true);
+    if (!permissionStates.getDeniedPermissions().isEmpty()) {
+      requestPermissionsToSystem(permissionStates.getDeniedPermissions());
+    }
+    updatePermissionsAsGranted(permissionStates.getGrantedPermissions());
   }
 
   /**
    * Method called when the user has been informed with a rationale and decides to cancel
    * the permission request process
+   *
+   * @param requestId Id of the request the rationale was shown for. The token is ignored if that
+   * request is not waiting for it anymore
    */
-  void onCancelPermissionRequest() {
-    rationaleAccepted.set(false);
-    updatePermissionsAsDenied(pendingPermissions);
+  void onCancelPermissionRequest(int requestId) {
+    if (!isAwaitingRationale(requestId)) {
+      return;
+    }
+
+    updatePermissionsAsDenied(state.get().getPendingPermissions());
+  }
+
+  private boolean isAwaitingRationale(int requestId) {
+    RequestState currentState = state.get();
+    return currentState.is(RequestState.Stage.AWAITING_RATIONALE)
+        && currentState.getRequestId() == requestId;
   }
 
   /**
    * Is a request for permission currently ongoing?
-   * If so, state of permissions must not be checked until the request is resolved
-   * or it will cause an exception
+   * If so, new requests are queued until the ongoing one is resolved
    */
   boolean isRequestOngoing() {
-    return isRequestingPermission.get();
+    return !state.get().is(RequestState.Stage.IDLE);
+  }
+
+  /**
+   * Returns the number of requests waiting for the ongoing one to finish
+   */
+  int getQueuedRequestCount() {
+    synchronized (requestQueueMutex) {
+      return requestQueue.size();
+    }
+  }
+
+  /**
+   * Returns how long the oldest queued request has been waiting for the ongoing one to finish
+   */
+  long getQueuedRequestWaitTime(TimeUnit unit) {
+    synchronized (requestQueueMutex) {
+      return requestQueue.getLongestWaitTime(unit);
+    }
   }
 
   /**
-   * Starts the native request permissions process
+   * Opens a session. While there is any session open the inner activity is not finished when a
+   * request ends, so the next requests reuse it through {@link Activity#onNewIntent(Intent)}
+   * instead of launching a new one.
    */
-  void requestPermissionsToSystem(Collection<String> permissions) {
-    if (!isShowingNativeDialog.get()) {
-      androidPermissionService.requestPermissions(activity,
-          permissions.toArray(new String[permissions.size()]), PERMISSIONS_REQUEST_CODE);
+  void openSession() {
+    openSessionCount.incrementAndGet();
+  }
+
+  /**
+   * Closes a session previously opened. When the last one is closed the inner activity is
+   * finished unless a request is still using it, in which case it is finished when the request
+   * ends.
+   */
+  void closeSession() {
+    if (openSessionCount.decrementAndGet() == 0) {
+      finishSessionHostIfNeeded();
     }
-    isShowingNativeDialog.set(true);
   }
 
   void updateContext(Context context) {
-    this.context = context;
+    this.context.set(context);
+  }
+
+  /**
+   * Method called whenever an activity of the application is destroyed. If it is the context of
+   * this instance, the application context replaces it so the activity is not retained.
+   *
+   * @return true if the activity was the context of this instance and neither a request nor a
+   * session is using it, so the instance can be released
+   */
+  boolean onActivityDestroyed(Activity activity) {
+    if (!context.compareAndSet(activity, activity.getApplicationContext())) {
+      return false;
+    }
+
+    return !activity.isChangingConfigurations() && !isRequestOngoing()
+        && openSessionCount.get() == 0;
+  }
+
+  /**
+   * Starts the native request permissions process unless it has already been started for the
+   * ongoing request
+   */
+  private void requestPermissionsToSystem(Collection<String> permissions) {
+    RequestState currentState;
+    do {
+      currentState = state.get();
+      if (!currentState.isBeforeSystemRequest()) {
+        return;
+      }
+    } while (!state.compareAndSet(currentState,
+        currentState.withStage(RequestState.Stage.AWAITING_SYSTEM)));
+
+    onRequestPhase(PermissionRequestPhase.SYSTEM_DIALOG_REQUESTED);
+    Activity activity = currentState.getActivity();
+    String[] permissionsToRequest = permissions.toArray(new String[permissions.size()]);
+    int requestCode = requestCodeAllocator.allocate();
+    HostFragment fragment = getHostFragment(activity);
+    if (fragment != null) {
+      androidPermissionService.requestPermissions(fragment, permissionsToRequest, requestCode);
+    } else {
+      androidPermissionService.requestPermissions(activity, permissionsToRequest, requestCode);
+    }
+  }
+
+  /**
+   * Returns the fragment hosting the requests in the given activity or null if the activity is a
+   * DexterActivity
+   */
+  private HostFragment getHostFragment(Activity activity) {
+    HostFragment fragment = hostFragment.get();
+    return fragment != null && activity != null && fragment.getActivity() == activity
+        ? fragment : null;
   }
 
-  private PermissionStates getPermissionStates(Collection<String> pendingPermissions) {
+  /**
+   * Releases the inner activity. The DexterActivity is finished while the activity hosting a
+   * DexterFragment, which belongs to the caller, only gets rid of the fragment. If the fragment is
+   * already gone, for example after a configuration change, there is nothing to release.
+   */
+  private void finishHost(Activity activity) {
+    HostFragment fragment = getHostFragment(activity);
+    if (fragment != null) {
+      if (hostFragment.compareAndSet(fragment, null)) {
+        fragment.remove();
+      }
+    } else if (hostFragmentProvider.isInnerActivity(activity)) {
+      activity.finish();
+    }
+  }
+
+  /**
+   * Splits the pending permissions into granted and denied ones
+   *
+   * @param refresh True to ask the system for the state of every permission instead of the cache
+   */
+  private PermissionStates getPermissionStates(Collection<String> pendingPermissions,
+      Context context, boolean refresh) {
     PermissionStates permissionStates = new PermissionStates();
 
     for (String permission : pendingPermissions) {
-      int permissionState = androidPermissionService.checkSelfPermission(activity, permission);
+      int permissionState = refresh
+          ? permissionStateCache.refreshSelfPermission(context, permission)
+          : permissionStateCache.checkSelfPermission(context, permission);
       switch (permissionState) {
         case PackageManager.PERMISSION_DENIED:
           permissionStates.addDeniedPermission(permission);
@@ -214,8 +505,53 @@ final class DexterInstance {
     return permissionStates;
   }
 
+  /**
+   * Merges the ongoing request with the queued ones asking for any of the pending permissions,
+   * so all of them are resolved through a single system request. Requests can only be merged
+   * before the user has been asked about the pending permissions.
+   */
+  private void coalesceOverlappingRequests() {
+    RequestState currentState = state.get();
+    if (currentState.getPendingPermissions().isEmpty() || !currentState.isBeforeSystemRequest()) {
+      return;
+    }
+
+    List<DexterRequest> overlappingRequests;
+    synchronized (requestQueueMutex) {
+      overlappingRequests = requestQueue.pollOverlapping(currentState.getPendingPermissions());
+    }
+    if (overlappingRequests.isEmpty()) {
+      return;
+    }
+
+    PermissionSet overlappingPermissions = new PermissionSet();
+    List<MultiplePermissionsListener> overlappingListeners = new ArrayList<>();
+    for (DexterRequest request : overlappingRequests) {
+      activeRequests.add(request);
+      overlappingListeners.add(request.getDispatchListener());
+      overlappingPermissions.addAll(request.getPermissions());
+    }
+
+    PermissionSet pendingPermissions;
+    CoalescedMultiplePermissionsListener listener;
+    do {
+      currentState = state.get();
+      pendingPermissions = new PermissionSet(currentState.getPendingPermissions());
+      pendingPermissions.addAll(overlappingPermissions);
+      listener = currentState.getListener();
+      for (int i = 0; i < overlappingRequests.size(); i++) {
+        listener = listener.with(overlappingListeners.get(i),
+            overlappingRequests.get(i).getPermissions());
+      }
+    } while (!state.compareAndSet(currentState,
+        currentState.withPendingPermissions(pendingPermissions).withListener(listener)));
+  }
+
   private void startTransparentActivityIfNeeded() {
-    if (context != null) {
+    Context context = this.context.get();
+    if (hostFragmentProvider.canAttach(context)) {
+      hostFragmentProvider.attach((Activity) context, intentProvider.getHostKey());
+    } else if (context != null) {
       Intent intent = intentProvider.get(context, DexterActivity.class);
       if (!(context instanceof Activity)) {
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
@@ -229,64 +565,292 @@ final class DexterInstance {
       return;
     }
 
-    List<PermissionRequest> shouldShowRequestRationalePermissions = new LinkedList<>();
+    RequestState currentState = state.get();
+    List<PermissionRequest> shouldShowRequestRationalePermissions =
+        getRationalePermissions(permissions, currentState.getActivity());
+
+    if (shouldShowRequestRationalePermissions.isEmpty()) {
+      requestPermissionsToSystem(permissions);
+      return;
+    }
+
+    do {
+      currentState = state.get();
+      if (!currentState.isBeforeSystemRequest()) {
+        return;
+      }
+    } while (!state.compareAndSet(currentState,
+        currentState.withStage(RequestState.Stage.AWAITING_RATIONALE)));
+
+    PermissionRationaleToken permissionToken =
+        new PermissionRationaleToken(this, currentState.getRequestId());
+    onRequestPhase(PermissionRequestPhase.RATIONALE_SHOWN);
+    currentState.getListener().onPermissionRationaleShouldBeShown(
+        shouldShowRequestRationalePermissions, permissionToken);
+  }
 
+  private List<PermissionRequest> getRationalePermissions(Collection<String> permissions,
+      Activity activity) {
+    List<PermissionRequest> rationalePermissions = new LinkedList<>();
     for (String permission : permissions) {
       if (androidPermissionService.shouldShowRequestPermissionRationale(activity, permission)) {
-        shouldShowRequestRationalePermissions.add(new PermissionRequest(permission));
+        rationalePermissions.add(PermissionRequest.from(permission));
       }
     }
-
-    if (shouldShowRequestRationalePermissions.isEmpty()) {
-      requestPermissionsToSystem(permissions);
-    } else if (!rationaleAccepted.get()) {
-      PermissionRationaleToken permissionToken = new PermissionRationaleToken(this);
-      listener.onPermissionRationaleShouldBeShown(shouldShowRequestRationalePermissions,
-          permissionToken);
-    }
+    return rationalePermissions;
   }
 
   private void updatePermissionsAsGranted(Collection<String> permissions) {
+    RequestState currentState = state.get();
+    if (currentState.getPendingPermissions().isEmpty() || permissions.isEmpty()) {
+      return;
+    }
+
+    MultiplePermissionsReport responses = new MultiplePermissionsReport();
     for (String permission : permissions) {
-      PermissionGrantedResponse response = PermissionGrantedResponse.from(permission);
-      multiplePermissionsReport.addGrantedPermissionResponse(response);
+      responses.addGrantedPermissionResponse(PermissionGrantedResponse.from(permission));
     }
-    onPermissionsChecked(permissions);
+    onPermissionsChecked(responses);
   }
 
   private void updatePermissionsAsDenied(Collection<String> permissions) {
+    RequestState currentState = state.get();
+    if (currentState.getPendingPermissions().isEmpty() || permissions.isEmpty()) {
+      return;
+    }
+
+    boolean isSystemResult = currentState.is(RequestState.Stage.AWAITING_SYSTEM);
+    MultiplePermissionsReport responses = new MultiplePermissionsReport();
     for (String permission : permissions) {
       PermissionDeniedResponse response = PermissionDeniedResponse.from(permission,
-          !androidPermissionService.shouldShowRequestPermissionRationale(activity, permission));
-      multiplePermissionsReport.addDeniedPermissionResponse(response);
+          !androidPermissionService.shouldShowRequestPermissionRationale(
+              currentState.getActivity(), permission));
+      responses.addDeniedPermissionResponse(response);
+      if (isSystemResult) {
+        permissionHistory.onPermissionDenied(permission, response.isPermanentlyDenied());
+      }
+    }
+    onPermissionsChecked(responses);
+  }
+
+  /**
+   * Moves the responses of the pending permissions to the report of the ongoing request. The
+   * report is copied, so a report already published is never modified. The thread resolving the
+   * last pending permission moves the request to the dispatching stage and is the only one
+   * notifying the listener.
+   */
+  private void onPermissionsChecked(MultiplePermissionsReport responses) {
+    RequestState currentState;
+    RequestState nextState;
+    PermissionSet pendingPermissions;
+    do {
+      currentState = state.get();
+      if (currentState.getPendingPermissions().isEmpty()) {
+        return;
+      }
+      pendingPermissions = new PermissionSet(currentState.getPendingPermissions());
+      MultiplePermissionsReport report = new MultiplePermissionsReport(currentState.getReport());
+      for (PermissionGrantedResponse response : responses.getGrantedPermissionResponses()) {
+        if (pendingPermissions.remove(response.getPermissionName())) {
+          report.addGrantedPermissionResponse(response);
+        }
+      }
+      for (PermissionDeniedResponse response : responses.getDeniedPermissionResponses()) {
+        if (pendingPermissions.remove(response.getPermissionName())) {
+          report.addDeniedPermissionResponse(response);
+        }
+      }
+      nextState = currentState.withPendingPermissions(pendingPermissions).withReport(report);
+      if (pendingPermissions.isEmpty()) {
+        nextState = nextState.withStage(RequestState.Stage.DISPATCHING);
+      }
+    } while (!state.compareAndSet(currentState, nextState));
+
+    if (!pendingPermissions.isEmpty()) {
+      return;
+    }
+
+    requestCodeAllocator.releaseAll();
+    activeRequests.clear();
+    DexterRequest nextRequest = pollNextRequest();
+    Activity activity = nextState.getActivity();
+    if (nextRequest == null && activity != null) {
+      finishActivityUnlessSessionIsOpen(activity);
+    }
+    nextState.getListener().onPermissionsChecked(nextState.getReport());
+
+    if (nextRequest != null) {
+      startRequestOnMainThread(nextRequest);
     }
-    onPermissionsChecked(permissions);
   }
 
-  private void onPermissionsChecked(Collection<String> permissions) {
-    if (pendingPermissions.isEmpty()) {
+  /**
+   * Finishes the request with the given id notifying the error to its error listener. If it was
+   * the last request waiting for the ongoing permissions, the ongoing request is aborted so the
+   * next one can start.
+   */
+  private void cancelRequest(DexterRequest request, final DexterError error) {
+    if (!request.finish()) {
       return;
     }
 
-    synchronized (pendingPermissionsMutex) {
-      pendingPermissions.removeAll(permissions);
-      if (pendingPermissions.isEmpty()) {
-        activity.finish();
-        activity = null;
-        isRequestingPermission.set(false);
-        rationaleAccepted.set(false);
-        isShowingNativeDialog.set(false);
-        MultiplePermissionsListener currentListener = listener;
-        listener = EMPTY_LISTENER;
-        currentListener.onPermissionsChecked(multiplePermissionsReport);
+    final PermissionRequestErrorListener errorListener = request.getErrorListener();
+    request.getThread().execute(new Runnable() {
+      @Override public void run() {
+        errorListener.onError(error);
+      }
+    });
+
+    boolean isQueued;
+    synchronized (requestQueueMutex) {
+      isQueued = requestQueue.remove(request);
+    }
+    if (!isQueued && activeRequests.remove(request) && activeRequests.isEmpty()) {
+      abortOngoingRequest();
+    }
+  }
+
+  /**
+   * Discards the pending permissions of the ongoing request without notifying its listener and
+   * starts the next one, finishing the inner activity if there is none
+   */
+  private void abortOngoingRequest() {
+    RequestState currentState;
+    do {
+      currentState = state.get();
+      if (currentState.is(RequestState.Stage.IDLE)
+          || currentState.is(RequestState.Stage.DISPATCHING)) {
+        return;
+      }
+    } while (!state.compareAndSet(currentState,
+        currentState.withPendingPermissions(new PermissionSet())
+            .withStage(RequestState.Stage.DISPATCHING)));
+
+    requestCodeAllocator.releaseAll();
+    startNextRequest(currentState.getActivity());
+  }
+
+  /**
+   * Starts the next queued request or, if there is none, finishes the given inner activity
+   */
+  private void startNextRequest(Activity activity) {
+    DexterRequest nextRequest = pollNextRequest();
+    if (nextRequest == null && activity != null) {
+      finishActivityUnlessSessionIsOpen(activity);
+    }
+
+    if (nextRequest != null) {
+      startRequestOnMainThread(nextRequest);
+    }
+  }
+
+  /**
+   * Starts the request on the main thread. Requests are resolved on the thread of their listener,
+   * which can be a worker one, but the next request may launch the inner activity or ask the
+   * system for permissions.
+   */
+  private void startRequestOnMainThread(final DexterRequest request) {
+    mainThread.execute(new Runnable() {
+      @Override public void run() {
+        startRequest(request);
+      }
+    });
+  }
+
+  /**
+   * Schedules the expiration of the request. The timer only keeps a weak reference, so it does not
+   * retain a request that has already finished. The request expires on the main thread, as
+   * aborting it may start the next request or finish the inner activity.
+   */
+  private void scheduleTimeout(DexterRequest request, long timeoutMillis) {
+    final WeakReference<DexterRequest> requestReference = new WeakReference<>(request);
+    final Runnable expiration = new Runnable() {
+      @Override public void run() {
+        DexterRequest request = requestReference.get();
+        if (request != null) {
+          cancelRequest(request, DexterError.REQUEST_TIMED_OUT);
+        }
+      }
+    };
+    request.setTimeout(getTimeoutExecutor().schedule(new Runnable() {
+      @Override public void run() {
+        mainThread.execute(expiration);
       }
+    }, timeoutMillis, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Returns the executor shared by every instance to expire requests. Its only thread is a daemon
+   * one so it never keeps the process alive.
+   */
+  private static synchronized ScheduledExecutorService getTimeoutExecutor() {
+    if (timeoutExecutor == null) {
+      timeoutExecutor = Executors.newSingleThreadScheduledExecutor(
+          new java.util.concurrent.ThreadFactory() {
+            @Override public java.lang.Thread newThread(Runnable runnable) {
+              java.lang.Thread thread = new java.lang.Thread(runnable, "Dexter timeouts");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return timeoutExecutor;
+  }
+
+  private void finishActivityUnlessSessionIsOpen(Activity activity) {
+    if (openSessionCount.get() == 0) {
+      finishHost(activity);
+      return;
+    }
+
+    sessionHost.set(activity);
+    if (openSessionCount.get() == 0) {
+      finishSessionHostIfNeeded();
+    }
+  }
+
+  private void finishSessionHostIfNeeded() {
+    Activity activity = sessionHost.getAndSet(null);
+    if (activity != null) {
+      finishHost(activity);
+    }
+  }
+
+  /**
+   * Queues the request if there is another one ongoing. Otherwise, the request is marked as the
+   * ongoing one and has to be started by the caller.
+   *
+   * @return true if the request has been queued
+   */
+  private boolean enqueueIfRequestOngoing(DexterRequest request) {
+    synchronized (requestQueueMutex) {
+      RequestState currentState;
+      do {
+        currentState = state.get();
+        if (!currentState.is(RequestState.Stage.IDLE)) {
+          requestQueue.add(request);
+          return true;
+        }
+      } while (!state.compareAndSet(currentState, currentState == RequestState.IDLE
+          ? RequestState.STARTED : currentState.withStage(RequestState.Stage.LAUNCHING_HOST)));
+      return false;
     }
   }
 
-  private void checkNoDexterRequestOngoing() {
-    if (isRequestingPermission.getAndSet(true)) {
-      throw new DexterException("Only one Dexter request at a time is allowed",
-          DexterError.REQUEST_ONGOING);
+  /**
+   * Returns the next queued request to start or null if there is none, in which case the
+   * instance goes back to the idle stage. The inner activity, if any, is kept for the next
+   * request.
+   */
+  private DexterRequest pollNextRequest() {
+    synchronized (requestQueueMutex) {
+      DexterRequest nextRequest = requestQueue.poll();
+      RequestState currentState;
+      do {
+        currentState = state.get();
+      } while (!state.compareAndSet(currentState, nextRequest == null
+          ? RequestState.IDLE : RequestState.STARTED.withActivity(currentState.getActivity())));
+      return nextRequest;
     }
   }
 
@@ -297,64 +861,262 @@ final class DexterInstance {
     }
   }
 
-  private void checkSinglePermission(PermissionListener listener, String permission,
-      Thread thread) {
-    MultiplePermissionsListener adapter =
-        new MultiplePermissionsListenerToPermissionListenerAdapter(listener);
-    checkMultiplePermissions(adapter, Collections.singleton(permission), thread);
+  private void checkEveryPermissionDeclared(PermissionSet permissions, Context context) {
+    PermissionSet declaredPermissions = permissionStateCache.getDeclaredPermissions(context);
+    if (declaredPermissions == null || declaredPermissions.containsAll(permissions)) {
+      return;
+    }
+
+    for (int id = permissions.nextId(0); id >= 0; id = permissions.nextId(id + 1)) {
+      if (!declaredPermissions.containsId(id)) {
+        throw new DexterException("Permission " + PermissionSet.nameOf(id)
+            + " is not declared in the application manifest",
+            DexterError.PERMISSION_NOT_DECLARED);
+      }
+    }
   }
 
-  private void checkMultiplePermissions(final MultiplePermissionsListener listener,
-      final Collection<String> permissions, Thread thread) {
-    checkNoDexterRequestOngoing();
+  private int checkMultiplePermissions(MultiplePermissionsListener listener,
+      Collection<String> permissions, Thread thread,
+      PermissionRequestMetricsListener metricsListener,
+      PermissionRequestErrorListener errorListener, long timeoutMillis) {
     checkRequestSomePermission(permissions);
 
+    Context context = this.context.get();
     if (context == null) {
+      return NO_REQUEST_ID;
+    }
+
+    int requestId;
+    PermissionSet permissionSet = PermissionSet.from(permissions);
+    checkEveryPermissionDeclared(permissionSet, context);
+    boolean isStarted = state.compareAndSet(RequestState.IDLE, RequestState.STARTED);
+    if (isStarted && isEveryPermissionGranted(permissionSet, context)) {
+      forgetPermanentDenials(permissionSet);
+      requestId = DexterRequest.nextId();
+      metricsListener.onRequestPhase(requestId, PermissionRequestPhase.REQUEST_ACCEPTED,
+          System.nanoTime());
+      grantedRequestDispatcher.dispatch(listener, getGrantedReport(permissionSet), thread,
+          metricsListener, requestId);
+    } else {
+      DexterRequest request = new DexterRequest(listener, permissionSet, thread, metricsListener,
+          errorListener);
+      requestId = request.getId();
+      request.onPhase(PermissionRequestPhase.REQUEST_ACCEPTED);
+      if (isStarted || !enqueueIfRequestOngoing(request)) {
+        startRequest(request);
+      }
+      if (timeoutMillis > 0 && !request.isFinished()) {
+        scheduleTimeout(request, timeoutMillis);
+      }
+    }
+    thread.loop();
+    return requestId;
+  }
+
+  /**
+   * Starts processing a request. Requests for permissions already granted are answered right
+   * away, no matter the kind of context Dexter was initialized with, without starting the inner
+   * activity. If the inner activity is still alive because the request was queued behind a
+   * previous one, the same activity is reused to avoid launching a new one. Otherwise, permissions
+   * the user has permanently denied are reported right away and the inner activity is only
+   * launched if any of the remaining permissions can still be requested.
+   */
+  private void startRequest(DexterRequest request) {
+    PermissionSet permissions = request.getPermissions();
+    Activity activity = state.get().getActivity();
+    Context context = this.context.get();
+
+    if (request.isFinished()) {
+      startNextRequest(activity);
       return;
     }
 
-    pendingPermissions.clear();
-    pendingPermissions.addAll(permissions);
-    multiplePermissionsReport.clear();
-    this.listener = new MultiplePermissionListenerThreadDecorator(listener, thread);
-    if (isEveryPermissionGranted(permissions, context) && isContextInstanceOfActivity()) {
-      thread.execute(new Runnable() {
-        @Override public void run() {
-          MultiplePermissionsReport report = new MultiplePermissionsReport();
-          for (String permission : permissions) {
-            report.addGrantedPermissionResponse(PermissionGrantedResponse.from(permission));
-          }
-          isRequestingPermission.set(false);
-          listener.onPermissionsChecked(report);
-        }
-      });
+    if (activity == null && isEveryPermissionGranted(permissions, context)) {
+      forgetPermanentDenials(permissions);
+      dispatchWithoutHost(request, getGrantedReport(permissions));
+      return;
+    }
+
+    PermissionSet pendingPermissions = new PermissionSet(permissions);
+    MultiplePermissionsReport report = new MultiplePermissionsReport();
+    if (activity == null && reportPermanentlyDeniedPermissions(pendingPermissions, report, context)
+        && isEveryPermissionGranted(pendingPermissions, context)) {
+      for (int id = pendingPermissions.nextId(0); id >= 0; id = pendingPermissions.nextId(id + 1)) {
+        String permission = PermissionSet.nameOf(id);
+        report.addGrantedPermissionResponse(PermissionGrantedResponse.from(permission));
+      }
+      dispatchWithoutHost(request, report);
+      return;
+    }
+
+    CoalescedMultiplePermissionsListener listener =
+        new CoalescedMultiplePermissionsListener(request.getDispatchListener(), permissions);
+    RequestState currentState;
+    do {
+      currentState = state.get();
+      activity = currentState.getActivity();
+    } while (!state.compareAndSet(currentState, new RequestState(
+        RequestState.Stage.LAUNCHING_HOST, request.getId(), pendingPermissions, activity,
+        listener, report)));
+    activeRequests.clear();
+    activeRequests.add(request);
+    if (request.isFinished()) {
+      // Cancelled while being started, whoever removes it from the active ones aborts it
+      if (activeRequests.remove(request)) {
+        abortOngoingRequest();
+      }
+      return;
+    }
+
+    if (activity != null) {
+      onActivityReady(activity);
     } else {
       startTransparentActivityIfNeeded();
     }
-    thread.loop();
+  }
+
+  private void dispatchWithoutHost(DexterRequest request, MultiplePermissionsReport report) {
+    if (request.finish()) {
+      grantedRequestDispatcher.dispatch(request.getListener(), report, request.getThread(),
+          request.getMetricsListener(), request.getId());
+    } else {
+      startNextRequest(null);
+    }
+  }
+
+  /**
+   * Moves the pending permissions the user asked not to be asked about again to the report, as
+   * the system would deny them without showing anything. When Dexter has been called with an
+   * activity, the system is asked first whether it would show a rationale for the permission, in
+   * which case the denial is not permanent anymore and it is forgotten.
+   *
+   * @return true if any permission has been reported
+   */
+  private boolean reportPermanentlyDeniedPermissions(PermissionSet pendingPermissions,
+      MultiplePermissionsReport report, Context context) {
+    if (!permissionHistory.hasPermanentlyDeniedPermissions()) {
+      return false;
+    }
+
+    boolean isAnyPermissionReported = false;
+    for (int id = pendingPermissions.nextId(0); id >= 0; id = pendingPermissions.nextId(id + 1)) {
+      String permission = PermissionSet.nameOf(id);
+      if (!permissionHistory.isPermanentlyDenied(permission)) {
+        continue;
+      }
+
+      if (permissionStateCache.checkSelfPermission(context, permission)
+          == PackageManager.PERMISSION_GRANTED) {
+        permissionHistory.onPermissionGranted(permission);
+      } else if (context instanceof Activity
+          && androidPermissionService.shouldShowRequestPermissionRationale((Activity) context,
+          permission)) {
+        permissionHistory.forget(permission);
+      } else {
+        report.addDeniedPermissionResponse(PermissionDeniedResponse.from(permission, true));
+        pendingPermissions.remove(permission);
+        isAnyPermissionReported = true;
+      }
+    }
+    return isAnyPermissionReported;
   }
 
   /**
-   * To be able to provide backward compatibility with the Dexter's 2.X.X version we need to check
-   * at some point if the context instance is an instance of {@link android.app.Activity}.
+   * Forgets the permanent denial of the given granted permissions. The user must have granted
+   * them from the system settings, where they could be revoked again to be requested once more.
    */
-  private boolean isContextInstanceOfActivity() {
-    return context != null && context instanceof Activity;
+  private void forgetPermanentDenials(PermissionSet grantedPermissions) {
+    if (!permissionHistory.hasPermanentlyDeniedPermissions()) {
+      return;
+    }
+
+    for (int id = grantedPermissions.nextId(0); id >= 0; id = grantedPermissions.nextId(id + 1)) {
+      String permission = PermissionSet.nameOf(id);
+      if (permissionHistory.isPermanentlyDenied(permission)) {
+        permissionHistory.onPermissionGranted(permission);
+      }
+    }
   }
 
-  private boolean isEveryPermissionGranted(Collection<String> permissions, Context context) {
-    for (String permission : permissions) {
-      int permissionState = androidPermissionService.checkSelfPermission(context, permission);
+  private void onRequestPhase(PermissionRequestPhase phase) {
+    for (DexterRequest request : activeRequests) {
+      request.onPhase(phase);
+    }
+  }
+
+  private boolean isEveryPermissionGranted(PermissionSet permissions, Context context) {
+    for (int id = permissions.nextId(0); id >= 0; id = permissions.nextId(id + 1)) {
+      int permissionState =
+          permissionStateCache.checkSelfPermission(context, PermissionSet.nameOf(id));
       if (permissionState != PackageManager.PERMISSION_GRANTED) {
         return false;
       }
     }
     return true;
   }
+
+  /**
+   * Returns a report with every given permission granted. Reports can't be modified by the
+   * listeners, so the ones built for the most common sets of permissions are reused.
+   */
+  private MultiplePermissionsReport getGrantedReport(PermissionSet permissions) {
+    MultiplePermissionsReport report = grantedReports.get(permissions);
+    if (report == null) {
+      report = new MultiplePermissionsReport();
+      for (String permission : permissions) {
+        report.addGrantedPermissionResponse(PermissionGrantedResponse.from(permission));
+      }
+      if (grantedReports.size() < MAX_GRANTED_REPORTS) {
+        grantedReports.put(new PermissionSet(permissions), report);
+      }
+    }
+    return report;
+  }
+
+  /**
+   * Notifies a listener with a report resolved without the inner activity, usually because every
+   * permission it asked for is already granted. Only the ongoing request can be answered at a time,
+   * so a single instance is reused for every request and its fields are copied before the next
+   * request is started.
+   */
+  private final class GrantedRequestDispatcher implements Runnable {
+    private MultiplePermissionsListener listener;
+    private MultiplePermissionsReport report;
+    private PermissionRequestMetricsListener metricsListener;
+    private int requestId;
+
+    private void dispatch(MultiplePermissionsListener listener, MultiplePermissionsReport report,
+        Thread thread, PermissionRequestMetricsListener metricsListener, int requestId) {
+      this.listener = listener;
+      this.report = report;
+      this.metricsListener = metricsListener;
+      this.requestId = requestId;
+      thread.execute(this);
+    }
+
+    @Override public void run() {
+      MultiplePermissionsListener listener = this.listener;
+      MultiplePermissionsReport report = this.report;
+      PermissionRequestMetricsListener metricsListener = this.metricsListener;
+      int requestId = this.requestId;
+      this.listener = null;
+      this.report = null;
+      this.metricsListener = null;
+
+      DexterRequest nextRequest = pollNextRequest();
+      listener.onPermissionsChecked(report);
+      metricsListener.onRequestPhase(requestId, PermissionRequestPhase.LISTENER_DISPATCHED,
+          System.nanoTime());
+      if (nextRequest != null) {
+        startRequestOnMainThread(nextRequest);
+      }
+    }
+  }
   
   private final class PermissionStates {
-    private final Collection<String> deniedPermissions = new LinkedList<>();
-    private final Collection<String> grantedPermissions = new LinkedList<>();
+    private final PermissionSet deniedPermissions = new PermissionSet();
+    private final PermissionSet grantedPermissions = new PermissionSet();
 
     private void addDeniedPermission(String permission) {
       deniedPermissions.add(permission);
@@ -364,11 +1126,11 @@ final class DexterInstance {
       grantedPermissions.add(permission);
     }
 
-    private Collection<String> getDeniedPermissions() {
+    private PermissionSet getDeniedPermissions() {
       return deniedPermissions;
     }
 
-    private Collection<String> getGrantedPermissions() {
+    private PermissionSet getGrantedPermissions() {
       return grantedPermissions;
     }
   }
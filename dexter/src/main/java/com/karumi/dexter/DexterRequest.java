@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import com.karumi.dexter.listener.PermissionRequestMetricsListener;
+import com.karumi.dexter.listener.PermissionRequestPhase;
+import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Permission request waiting to be processed by a {@link DexterInstance}
+ */
+final class DexterRequest {
+
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  private final int id;
+  private final MultiplePermissionsListener listener;
+  private final PermissionSet permissions;
+  private final Thread thread;
+  private final PermissionRequestMetricsListener metricsListener;
+  private final PermissionRequestErrorListener errorListener;
+  private final AtomicBoolean isFinished = new AtomicBoolean();
+  private long enqueuedAt;
+  private volatile Future<?> timeout;
+
+  DexterRequest(MultiplePermissionsListener listener, PermissionSet permissions, Thread thread,
+      PermissionRequestMetricsListener metricsListener,
+      PermissionRequestErrorListener errorListener) {
+    this.id = nextId();
+    this.listener = listener;
+    this.permissions = permissions;
+    this.thread = thread;
+    this.metricsListener = metricsListener;
+    this.errorListener = errorListener;
+  }
+
+  /**
+   * Returns a new request id. Requests answered without creating a DexterRequest use it to
+   * report their phases
+   */
+  static int nextId() {
+    return NEXT_ID.getAndIncrement();
+  }
+
+  int getId() {
+    return id;
+  }
+
+  PermissionRequestMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  PermissionRequestErrorListener getErrorListener() {
+    return errorListener;
+  }
+
+  void setTimeout(Future<?> timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Marks the request as finished, cancelling its timeout. A request finishes exactly once, when
+   * its listener is notified or when it is cancelled or timed out.
+   *
+   * @return true if the request was not finished yet
+   */
+  boolean finish() {
+    if (!isFinished.compareAndSet(false, true)) {
+      return false;
+    }
+
+    Future<?> timeout = this.timeout;
+    if (timeout != null) {
+      timeout.cancel(false);
+    }
+    return true;
+  }
+
+  boolean isFinished() {
+    return isFinished.get();
+  }
+
+  MultiplePermissionsListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Returns the listener of the request decorated to be notified on the request thread and to
+   * report when it has been notified to the metrics listener
+   */
+  MultiplePermissionsListener getDispatchListener() {
+    return new MultiplePermissionListenerThreadDecorator(
+        new MultiplePermissionListenerMetricsDecorator(listener, this), thread);
+  }
+
+  PermissionSet getPermissions() {
+    return permissions;
+  }
+
+  Thread getThread() {
+    return thread;
+  }
+
+  long getEnqueuedAt() {
+    return enqueuedAt;
+  }
+
+  void setEnqueuedAt(long enqueuedAt) {
+    this.enqueuedAt = enqueuedAt;
+  }
+
+  /**
+   * Reports to the metrics listener that the request has just reached the given phase
+   */
+  void onPhase(PermissionRequestPhase phase) {
+    metricsListener.onRequestPhase(id, phase, System.nanoTime());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
+import com.karumi.dexter.listener.single.PermissionListener;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chain of permission requests sharing the same inner activity. Requests are built as the ones
+ * started with {@link Dexter#withActivity(Activity)}, but the inner activity is not finished
+ * between them, avoiding a launch and a finish animation per request. Remember to close the
+ * session once the last request has been started.
+ */
+public final class DexterSession implements DexterBuilder.Permission, Closeable {
+
+  private final Activity activity;
+  private final DexterInstance instance;
+  private final AtomicBoolean isClosed = new AtomicBoolean();
+
+  DexterSession(Activity activity, DexterInstance instance) {
+    this.activity = activity;
+    this.instance = instance;
+  }
+
+  @Override public DexterBuilder.SinglePermissionListener withPermission(String permission) {
+    return Dexter.withActivity(activity).withPermission(permission);
+  }
+
+  @Override public DexterBuilder.MultiPermissionListener withPermissions(String... permissions) {
+    return Dexter.withActivity(activity).withPermissions(permissions);
+  }
+
+  @Override
+  public DexterBuilder.MultiPermissionListener withPermissions(Collection<String> permissions) {
+    return Dexter.withActivity(activity).withPermissions(permissions);
+  }
+
+  @Override public void continueRequestingPendingPermissions(PermissionListener listener) {
+    Dexter.withActivity(activity).continueRequestingPendingPermissions(listener);
+  }
+
+  @Override public void continueRequestingPendingPermissions(MultiplePermissionsListener listener) {
+    Dexter.withActivity(activity).continueRequestingPendingPermissions(listener);
+  }
+
+  /**
+   * Closes the session. The inner activity is finished right away if there is no request ongoing
+   * or as soon as the ongoing ones end otherwise. Closing a session more than once has no effect
+   */
+  @Override public void close() {
+    if (isClosed.compareAndSet(false, true)) {
+      instance.closeSession();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A thread to execute passed runnable objects on an {@link Executor} provided by the user. Unlike
+ * {@link WorkerThread} it does not need to loop, so the thread that fired the request is released
+ * as soon as the request is started
+ */
+final class ExecutorThread implements Thread {
+
+  private final Executor executor;
+
+  ExecutorThread(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override public void execute(Runnable runnable) {
+    executor.execute(runnable);
+  }
+
+  @Override public void loop() {
+  }
+}
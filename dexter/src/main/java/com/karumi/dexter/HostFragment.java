@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+
+/**
+ * Headless fragment attached to the activity Dexter has been called with, through which the
+ * permissions are requested instead of launching {@link DexterActivity}
+ */
+
+interface HostFragment {
+
+  /**
+   * Returns the activity the fragment is attached to
+   */
+  Activity getActivity();
+
+  /**
+   * @see android.app.Fragment#requestPermissions
+   */
+  void requestPermissions(String[] permissions, int requestCode);
+
+  /**
+   * Removes the fragment from its activity once Dexter does not need it anymore
+   */
+  void remove();
+}
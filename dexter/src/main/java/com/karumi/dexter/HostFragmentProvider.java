@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Provider of the {@link HostFragment} attached to the activity Dexter has been called with
+ */
+
+class HostFragmentProvider {
+
+  /**
+   * Returns true if a fragment can be attached to the given context. Fragments can only request
+   * permissions since Marshmallow and have to be attached to an activity that is not finishing.
+   * The version is checked before the fragment class is loaded, as it does not exist in older
+   * versions.
+   */
+  boolean canAttach(Context context) {
+    return context instanceof Activity
+        && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+        && !((Activity) context).isFinishing();
+  }
+
+  /**
+   * Attaches a new fragment to the activity replacing any previous one. The fragment reports to
+   * Dexter once it is ready.
+   *
+   * @param hostKey Key used to route the fragment back to the instance attaching it
+   */
+  void attach(Activity activity, int hostKey) {
+    DexterFragment.attach(activity, hostKey);
+  }
+
+  /**
+   * Returns true if the activity is the DexterActivity launched when no fragment can be attached.
+   * Any other activity belongs to the caller and must never be finished by Dexter.
+   */
+  boolean isInnerActivity(Activity activity) {
+    return activity instanceof DexterActivity;
+  }
+}
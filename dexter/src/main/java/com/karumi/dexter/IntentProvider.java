@@ -20,7 +20,43 @@ import android.content.Context;
 import android.content.Intent;
 
 class IntentProvider {
+
+  static final String EXTRA_HOST_KEY = "com.karumi.dexter.HOST_KEY";
+  static final int NO_HOST_KEY = -1;
+
+  private final int hostKey;
+
+  IntentProvider() {
+    this(NO_HOST_KEY);
+  }
+
+  /**
+   * @param hostKey Key added to every intent so the inner activity can be routed back to the
+   * instance that started it
+   */
+  IntentProvider(int hostKey) {
+    this.hostKey = hostKey;
+  }
+
+  /**
+   * Returns the key added to every intent or {@link #NO_HOST_KEY} if there is none
+   */
+  int getHostKey() {
+    return hostKey;
+  }
+
   public Intent get(Context context, Class<?> clazz) {
-    return new Intent(context, clazz);
+    Intent intent = new Intent(context, clazz);
+    if (hostKey != NO_HOST_KEY) {
+      intent.putExtra(EXTRA_HOST_KEY, hostKey);
+    }
+    return intent;
+  }
+
+  /**
+   * Returns the key of the instance that started the inner activity with the given intent
+   */
+  static int getHostKey(Intent intent) {
+    return intent.getIntExtra(EXTRA_HOST_KEY, NO_HOST_KEY);
   }
 }
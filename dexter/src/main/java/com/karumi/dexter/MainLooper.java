@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+/**
+ * Entry point to the main looper used by {@link MainThreadDispatcher} to schedule its batches
+ */
+class MainLooper {
+
+  private Handler handler;
+
+  /**
+   * Posts the runnable to the main looper
+   */
+  void post(Runnable runnable) {
+    getHandler().post(runnable);
+  }
+
+  /**
+   * Adds the idle handler to the message queue of the current thread, which must be the main one
+   */
+  void addIdleHandler(MessageQueue.IdleHandler idleHandler) {
+    Looper.myQueue().addIdleHandler(idleHandler);
+  }
+
+  /**
+   * Returns the handler bound to the main looper. It is created lazily because the main looper
+   * may not be prepared when this class is loaded. Creating it twice from different threads is
+   * harmless.
+   */
+  private Handler getHandler() {
+    Handler handler = this.handler;
+    if (handler == null) {
+      handler = new Handler(Looper.getMainLooper());
+      this.handler = handler;
+    }
+    return handler;
+  }
+}
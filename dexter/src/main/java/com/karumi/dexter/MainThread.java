@@ -16,7 +16,6 @@
 
 package com.karumi.dexter;
 
-import android.os.Handler;
 import android.os.Looper;
 
 /**
@@ -24,14 +23,21 @@ import android.os.Looper;
  */
 final class MainThread implements Thread {
 
-  MainThread() {
+  private final MainThreadDispatcher dispatcher;
+
+  MainThread(MainThreadDispatcher dispatcher) {
+    this.dispatcher = dispatcher;
   }
 
+  /**
+   * Executes the runnable right away when called from the main thread and nothing else is
+   * waiting to be dispatched. Otherwise, it is added to the next batch of the dispatcher
+   */
   @Override public void execute(Runnable runnable) {
-    if (runningMainThread()) {
+    if (!dispatcher.isWaitingForIdle() && runningMainThread() && dispatcher.isEmpty()) {
       runnable.run();
     } else {
-      new Handler(Looper.getMainLooper()).post(runnable);
+      dispatcher.dispatch(runnable);
     }
   }
 
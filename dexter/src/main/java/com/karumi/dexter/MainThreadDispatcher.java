@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.os.MessageQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process wide dispatcher of runnable objects to the main thread. Runnable objects posted while a
+ * previous batch is still waiting are executed in the same batch, so a single message is posted
+ * to the main looper no matter how many listeners have to be notified. The idle instance waits
+ * for the main thread to be idle before executing a batch, so listeners are never notified
+ * while layout or draw work is pending.
+ */
+final class MainThreadDispatcher implements Runnable, MessageQueue.IdleHandler {
+
+  private static final MainLooper MAIN_LOOPER = new MainLooper();
+  private static final MainThreadDispatcher INSTANCE =
+      new MainThreadDispatcher(false, MAIN_LOOPER);
+  private static final MainThreadDispatcher IDLE_INSTANCE =
+      new MainThreadDispatcher(true, MAIN_LOOPER);
+
+  private final boolean waitForIdle;
+  private final MainLooper mainLooper;
+  private final Queue<Runnable> pendingRunnables = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean isBatchScheduled = new AtomicBoolean();
+
+  MainThreadDispatcher(boolean waitForIdle, MainLooper mainLooper) {
+    this.waitForIdle = waitForIdle;
+    this.mainLooper = mainLooper;
+  }
+
+  /**
+   * Returns the dispatcher executing batches as soon as the main thread handles them
+   */
+  static MainThreadDispatcher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the dispatcher executing batches once the main thread is idle
+   */
+  static MainThreadDispatcher getIdleInstance() {
+    return IDLE_INSTANCE;
+  }
+
+  boolean isWaitingForIdle() {
+    return waitForIdle;
+  }
+
+  /**
+   * Returns true if there are no runnable objects waiting to be executed
+   */
+  boolean isEmpty() {
+    return pendingRunnables.isEmpty();
+  }
+
+  /**
+   * Adds the runnable to the next batch, scheduling the batch if needed
+   */
+  void dispatch(Runnable runnable) {
+    pendingRunnables.add(runnable);
+    if (isBatchScheduled.compareAndSet(false, true)) {
+      mainLooper.post(this);
+    }
+  }
+
+  /**
+   * Executed on the main thread when the batch message is handled. The idle instance defers the
+   * batch until the main message queue is idle
+   */
+  @Override public void run() {
+    if (waitForIdle) {
+      mainLooper.addIdleHandler(this);
+    } else {
+      executeBatch();
+    }
+  }
+
+  @Override public boolean queueIdle() {
+    executeBatch();
+    return false;
+  }
+
+  private void executeBatch() {
+    isBatchScheduled.set(false);
+    Runnable runnable;
+    while ((runnable = pendingRunnables.poll()) != null) {
+      runnable.run();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionRequest;
+import com.karumi.dexter.listener.PermissionRequestPhase;
+import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
+import java.util.List;
+
+/**
+ * Decorator to report when the permission updates of a request have been dispatched. Reports of
+ * requests already finished, because they were cancelled or timed out, are discarded
+ */
+final class MultiplePermissionListenerMetricsDecorator implements MultiplePermissionsListener {
+
+  private final MultiplePermissionsListener listener;
+  private final DexterRequest request;
+
+  MultiplePermissionListenerMetricsDecorator(MultiplePermissionsListener listener,
+      DexterRequest request) {
+    this.listener = listener;
+    this.request = request;
+  }
+
+  @Override public void onPermissionsChecked(MultiplePermissionsReport report) {
+    if (request.finish()) {
+      listener.onPermissionsChecked(report);
+      request.onPhase(PermissionRequestPhase.LISTENER_DISPATCHED);
+    }
+  }
+
+  @Override public void onPermissionRationaleShouldBeShown(List<PermissionRequest> permissions,
+      PermissionToken token) {
+    if (!request.isFinished()) {
+      listener.onPermissionRationaleShouldBeShown(permissions, token);
+    }
+  }
+}
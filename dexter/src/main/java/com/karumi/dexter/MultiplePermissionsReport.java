@@ -18,34 +18,128 @@ package com.karumi.dexter;
 
 import com.karumi.dexter.listener.PermissionDeniedResponse;
 import com.karumi.dexter.listener.PermissionGrantedResponse;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * An in detail report of the request permission process
+ * An in detail report of the request permission process. Responses are indexed by permission
+ * name and every count is kept up to date while the report is built, so all the queries are
+ * answered in constant time.
  */
 public final class MultiplePermissionsReport {
 
   private final List<PermissionGrantedResponse> grantedPermissionResponses;
   private final List<PermissionDeniedResponse> deniedPermissionResponses;
+  private final List<PermissionGrantedResponse> readOnlyGrantedPermissionResponses;
+  private final List<PermissionDeniedResponse> readOnlyDeniedPermissionResponses;
+  private final Map<String, PermissionGrantedResponse> grantedPermissionResponsesByName;
+  private final Map<String, PermissionDeniedResponse> deniedPermissionResponsesByName;
+  private int permanentlyDeniedCount;
 
   MultiplePermissionsReport() {
-    grantedPermissionResponses = new LinkedList<>();
-    deniedPermissionResponses = new LinkedList<>();
+    grantedPermissionResponses = new ArrayList<>();
+    deniedPermissionResponses = new ArrayList<>();
+    readOnlyGrantedPermissionResponses = Collections.unmodifiableList(grantedPermissionResponses);
+    readOnlyDeniedPermissionResponses = Collections.unmodifiableList(deniedPermissionResponses);
+    grantedPermissionResponsesByName = new HashMap<>();
+    deniedPermissionResponsesByName = new HashMap<>();
   }
 
   /**
-   * Returns a collection with all the permissions that has been granted
+   * Creates a copy of the given report, so responses can be added to the copy without modifying
+   * a report that may have been published already
+   */
+  MultiplePermissionsReport(MultiplePermissionsReport report) {
+    this();
+    grantedPermissionResponses.addAll(report.grantedPermissionResponses);
+    deniedPermissionResponses.addAll(report.deniedPermissionResponses);
+    grantedPermissionResponsesByName.putAll(report.grantedPermissionResponsesByName);
+    deniedPermissionResponsesByName.putAll(report.deniedPermissionResponsesByName);
+    permanentlyDeniedCount = report.permanentlyDeniedCount;
+  }
+
+  /**
+   * Returns a read only collection with all the permissions that has been granted
    */
   public List<PermissionGrantedResponse> getGrantedPermissionResponses() {
-    return grantedPermissionResponses;
+    return readOnlyGrantedPermissionResponses;
   }
 
   /**
-   * Returns a collection with all the permissions that has been denied
+   * Returns a read only collection with all the permissions that has been denied
    */
   public List<PermissionDeniedResponse> getDeniedPermissionResponses() {
-    return deniedPermissionResponses;
+    return readOnlyDeniedPermissionResponses;
+  }
+
+  /**
+   * Returns the response for the given permission if it has been granted or null otherwise
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public PermissionGrantedResponse getGrantedPermissionResponse(String permission) {
+    return grantedPermissionResponsesByName.get(permission);
+  }
+
+  /**
+   * Returns the response for the given permission if it has been denied or null otherwise
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public PermissionDeniedResponse getDeniedPermissionResponse(String permission) {
+    return deniedPermissionResponsesByName.get(permission);
+  }
+
+  /**
+   * Returns whether the user has granted the given permission
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean isGranted(String permission) {
+    return grantedPermissionResponsesByName.containsKey(permission);
+  }
+
+  /**
+   * Returns whether the user has denied the given permission
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean isDenied(String permission) {
+    return deniedPermissionResponsesByName.containsKey(permission);
+  }
+
+  /**
+   * Returns whether the user has permanently denied the given permission
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean isPermanentlyDenied(String permission) {
+    PermissionDeniedResponse response = deniedPermissionResponsesByName.get(permission);
+    return response != null && response.isPermanentlyDenied();
+  }
+
+  /**
+   * Returns the number of permissions that has been granted
+   */
+  public int getGrantedCount() {
+    return grantedPermissionResponses.size();
+  }
+
+  /**
+   * Returns the number of permissions that has been denied
+   */
+  public int getDeniedCount() {
+    return deniedPermissionResponses.size();
+  }
+
+  /**
+   * Returns the number of permissions that has been permanently denied
+   */
+  public int getPermanentlyDeniedCount() {
+    return permanentlyDeniedCount;
   }
 
   /**
@@ -59,28 +153,19 @@ public final class MultiplePermissionsReport {
    * Returns whether the user has permanently denied any of the requested permissions
    */
   public boolean isAnyPermissionPermanentlyDenied() {
-    boolean hasPermanentlyDeniedAnyPermission = false;
-
-    for (PermissionDeniedResponse deniedResponse : deniedPermissionResponses) {
-      if (deniedResponse.isPermanentlyDenied()) {
-        hasPermanentlyDeniedAnyPermission = true;
-        break;
-      }
-    }
-
-    return hasPermanentlyDeniedAnyPermission;
+    return permanentlyDeniedCount > 0;
   }
 
   boolean addGrantedPermissionResponse(PermissionGrantedResponse response) {
+    grantedPermissionResponsesByName.put(response.getPermissionName(), response);
     return grantedPermissionResponses.add(response);
   }
 
   boolean addDeniedPermissionResponse(PermissionDeniedResponse response) {
+    if (response.isPermanentlyDenied()) {
+      permanentlyDeniedCount++;
+    }
+    deniedPermissionResponsesByName.put(response.getPermissionName(), response);
     return deniedPermissionResponses.add(response);
   }
-
-  void clear() {
-    grantedPermissionResponses.clear();
-    deniedPermissionResponses.clear();
-  }
 }
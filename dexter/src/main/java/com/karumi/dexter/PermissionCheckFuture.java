@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.DexterError;
+import com.karumi.dexter.listener.PermissionRequest;
+import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import com.karumi.dexter.listener.PermissionRequestMetricsListener;
+import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to the result of a permission request started with {@link DexterBuilder#checkAsync()}.
+ * It is completed with the {@link MultiplePermissionsReport} once every permission has been
+ * resolved.
+ *
+ * Keep in mind the future is completed on the thread the request was configured to notify its
+ * listeners on, the main thread by default, so do not wait for it on that thread.
+ */
+public final class PermissionCheckFuture implements Future<MultiplePermissionsReport> {
+
+  private final Object lock = new Object();
+  private final CountDownLatch completion = new CountDownLatch(1);
+  private final List<Runnable> callbacks = new ArrayList<>();
+  private final List<Executor> callbackExecutors = new ArrayList<>();
+
+  private volatile DexterInstance instance;
+  private volatile int requestId;
+  private MultiplePermissionsReport report;
+  private Throwable exception;
+  private boolean isCancelled;
+  private boolean isDone;
+
+  PermissionCheckFuture() {
+  }
+
+  /**
+   * Registers a callback to be run on the given executor once the future is completed, cancelled
+   * or failed. If the future is already done the callback is run immediately
+   *
+   * @param callback The runnable to execute
+   * @param executor The executor the callback will be executed on
+   */
+  public void addListener(Runnable callback, Executor executor) {
+    synchronized (lock) {
+      if (!isDone) {
+        callbacks.add(callback);
+        callbackExecutors.add(executor);
+        return;
+      }
+    }
+    executor.execute(callback);
+  }
+
+  /**
+   * Cancels the future and the permission request behind it. If the request was the only one
+   * waiting for the ongoing permissions, the inner activity is finished and the next request is
+   * started
+   */
+  @Override public boolean cancel(boolean mayInterruptIfRunning) {
+    synchronized (lock) {
+      if (isDone) {
+        return false;
+      }
+      isCancelled = true;
+    }
+    complete();
+
+    DexterInstance instance = this.instance;
+    if (instance != null) {
+      instance.cancelRequest(requestId);
+    }
+    return true;
+  }
+
+  @Override public boolean isCancelled() {
+    synchronized (lock) {
+      return isCancelled;
+    }
+  }
+
+  @Override public boolean isDone() {
+    synchronized (lock) {
+      return isDone;
+    }
+  }
+
+  @Override public MultiplePermissionsReport get()
+      throws InterruptedException, ExecutionException {
+    completion.await();
+    return getResult();
+  }
+
+  @Override public MultiplePermissionsReport get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!completion.await(timeout, unit)) {
+      throw new TimeoutException("The permission request has not finished after " + timeout + " "
+          + unit.toString().toLowerCase());
+    }
+    return getResult();
+  }
+
+  /**
+   * Waits for the report like {@link #get(long, TimeUnit)} but cancels the request when the
+   * wait times out or the waiting thread is interrupted, so it does not outlive its caller. The
+   * interrupt flag is restored before rethrowing and failures are unwrapped to the
+   * {@link DexterException} that caused them
+   */
+  MultiplePermissionsReport getOrCancel(long timeout, TimeUnit unit)
+      throws InterruptedException, TimeoutException {
+    try {
+      return get(timeout, unit);
+    } catch (TimeoutException e) {
+      cancel(false);
+      throw e;
+    } catch (InterruptedException e) {
+      cancel(false);
+      java.lang.Thread.currentThread().interrupt();
+      throw e;
+    } catch (ExecutionException e) {
+      throw (DexterException) e.getCause();
+    }
+  }
+
+  boolean set(MultiplePermissionsReport report) {
+    synchronized (lock) {
+      if (isDone) {
+        return false;
+      }
+      this.report = report;
+    }
+    complete();
+    return true;
+  }
+
+  boolean setException(Throwable exception) {
+    synchronized (lock) {
+      if (isDone) {
+        return false;
+      }
+      this.exception = exception;
+    }
+    complete();
+    return true;
+  }
+
+  /**
+   * Starts the permission request this future is the handle of. Every failure, whether the
+   * request can't even start or it is cancelled or times out later on, is reported once to the
+   * given error listener and completes this future exceptionally
+   */
+  void start(DexterInstance instance, MultiplePermissionsListener listener,
+      Collection<String> permissions, Thread thread,
+      PermissionRequestMetricsListener metricsListener,
+      PermissionRequestErrorListener errorListener, long timeoutMillis) {
+    PermissionRequestErrorListener futureErrorListener = asErrorListener(errorListener);
+    try {
+      requestId = instance.checkPermissions(asListener(listener), permissions, thread,
+          metricsListener, futureErrorListener, timeoutMillis);
+      this.instance = instance;
+    } catch (DexterException e) {
+      futureErrorListener.onError(e.error);
+    }
+  }
+
+  /**
+   * Returns an error listener failing this future with a {@link DexterException} and forwarding
+   * the error to the given listener
+   */
+  private PermissionRequestErrorListener asErrorListener(
+      final PermissionRequestErrorListener listener) {
+    return new PermissionRequestErrorListener() {
+      @Override public void onError(DexterError error) {
+        listener.onError(error);
+        setException(new DexterException("The permission request finished with " + error, error));
+      }
+    };
+  }
+
+  /**
+   * Returns a listener completing this future with the report of the request and forwarding
+   * every callback to the given listener. When no listener is given, rationales are accepted
+   * automatically so the request does not wait for a token that will never be used
+   */
+  MultiplePermissionsListener asListener(final MultiplePermissionsListener listener) {
+    return new MultiplePermissionsListener() {
+      @Override public void onPermissionsChecked(MultiplePermissionsReport report) {
+        if (listener != null) {
+          listener.onPermissionsChecked(report);
+        }
+        set(report);
+      }
+
+      @Override public void onPermissionRationaleShouldBeShown(
+          List<PermissionRequest> permissions, PermissionToken token) {
+        if (isCancelled()) {
+          token.cancelPermissionRequest();
+        } else if (listener != null) {
+          listener.onPermissionRationaleShouldBeShown(permissions, token);
+        } else {
+          token.continuePermissionRequest();
+        }
+      }
+    };
+  }
+
+  private MultiplePermissionsReport getResult() throws ExecutionException {
+    synchronized (lock) {
+      if (isCancelled) {
+        throw new CancellationException("The permission request has been cancelled");
+      }
+      if (exception != null) {
+        throw new ExecutionException(exception);
+      }
+      return report;
+    }
+  }
+
+  private void complete() {
+    List<Runnable> callbacksToRun;
+    List<Executor> executorsToUse;
+    synchronized (lock) {
+      isDone = true;
+      callbacksToRun = new ArrayList<>(callbacks);
+      executorsToUse = new ArrayList<>(callbackExecutors);
+      callbacks.clear();
+      callbackExecutors.clear();
+    }
+    completion.countDown();
+
+    for (int i = 0; i < callbacksToRun.size(); i++) {
+      executorsToUse.get(i).execute(callbacksToRun.get(i));
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.content.Context;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent record of the decisions taken by the user every time a permission has been requested
+ * to the system. Decisions are appended to a file that is located and read through a memory mapped
+ * buffer on the write executor as soon as the history is created, so every query is answered from
+ * memory on any thread without waiting for the disk. Until the file has been read, only the
+ * decisions taken since the history was created are known.
+ */
+public final class PermissionHistory {
+
+  static final String FILE_NAME = "dexter_permission_history";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final byte GRANTED = 1;
+  private static final byte DENIED = 2;
+  private static final byte PERMANENTLY_DENIED = 3;
+  private static final byte FORGOTTEN = 4;
+  private static final int RECORD_HEADER_SIZE = 1 + 8 + 2;
+  private static final int MAX_FILE_SIZE = 64 * 1024;
+
+  private final FileSource fileSource;
+  private final Executor writeExecutor;
+  private final Map<String, Decision> decisions;
+  private final AtomicInteger permanentlyDeniedCount;
+  private volatile boolean isLoaded;
+  private File file;
+
+  /**
+   * @param file File where the decisions are kept or null to keep them only in memory
+   * @param writeExecutor Executor used to read the file and then write the decisions to it in
+   * order
+   */
+  PermissionHistory(File file, Executor writeExecutor) {
+    this(file != null ? fixedFile(file) : null, writeExecutor);
+  }
+
+  private PermissionHistory(FileSource fileSource, Executor writeExecutor) {
+    this.fileSource = fileSource;
+    this.writeExecutor = writeExecutor;
+    this.decisions = new ConcurrentHashMap<>();
+    this.permanentlyDeniedCount = new AtomicInteger();
+
+    if (fileSource == null) {
+      isLoaded = true;
+      return;
+    }
+
+    writeExecutor.execute(new Runnable() {
+      @Override public void run() {
+        file = fileSource.getFile();
+        load();
+        isLoaded = true;
+      }
+    });
+  }
+
+  /**
+   * Returns a history kept in the files directory of the application. The directory is only
+   * resolved on the write executor, as the system may have to create it on first use.
+   */
+  static PermissionHistory inFilesDir(final Context context, Executor writeExecutor) {
+    return new PermissionHistory(new FileSource() {
+      @Override public File getFile() {
+        File filesDir = context.getFilesDir();
+        return filesDir != null ? new File(filesDir, FILE_NAME) : null;
+      }
+    }, writeExecutor);
+  }
+
+  /**
+   * Returns true once the decisions taken in previous launches of the application have been read
+   */
+  public boolean isLoaded() {
+    return isLoaded;
+  }
+
+  /**
+   * Returns true if the permission has ever been requested to the user
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean hasBeenRequested(String permission) {
+    return getDecision(permission) != null;
+  }
+
+  /**
+   * Returns true if the last time the permission was requested the user denied it and asked the
+   * system not to show the request again
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean isPermanentlyDenied(String permission) {
+    Decision decision = getDecision(permission);
+    return decision != null && decision.outcome == PERMANENTLY_DENIED;
+  }
+
+  /**
+   * Returns true if the last decision about any permission was a permanent denial. Lets callers
+   * skip looking for permanently denied permissions in the most common case.
+   */
+  boolean hasPermanentlyDeniedPermissions() {
+    return permanentlyDeniedCount.get() > 0;
+  }
+
+  /**
+   * Returns the time in milliseconds since epoch of the last decision of the user about the
+   * permission or 0 if it has never been requested
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public long getLastDecisionTime(String permission) {
+    Decision decision = getDecision(permission);
+    return decision != null ? decision.timeMillis : 0;
+  }
+
+  /**
+   * Forgets every decision taken about the permission, so Dexter asks the system for it again
+   * instead of reporting it as permanently denied right away. Use it, for example, once the user
+   * comes back from the application settings.
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public void forget(String permission) {
+    record(permission, FORGOTTEN);
+  }
+
+  /**
+   * Records that the user has granted the permission
+   */
+  void onPermissionGranted(String permission) {
+    record(permission, GRANTED);
+  }
+
+  /**
+   * Records that the user has denied the permission
+   */
+  void onPermissionDenied(String permission, boolean isPermanentlyDenied) {
+    record(permission, isPermanentlyDenied ? PERMANENTLY_DENIED : DENIED);
+  }
+
+  private Decision getDecision(String permission) {
+    Decision decision = decisions.get(permission);
+    return decision != null && decision.outcome != FORGOTTEN ? decision : null;
+  }
+
+  private void putDecision(String permission, Decision decision) {
+    Decision previousDecision = decisions.put(permission, decision);
+    if (previousDecision != null && previousDecision.outcome == PERMANENTLY_DENIED) {
+      permanentlyDeniedCount.decrementAndGet();
+    }
+    if (decision.outcome == PERMANENTLY_DENIED) {
+      permanentlyDeniedCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Keeps a decision read from the file unless a newer one has already been recorded
+   */
+  private void putLoadedDecision(String permission, Decision decision) {
+    Decision recordedDecision = decisions.putIfAbsent(permission, decision);
+    if (recordedDecision == null && decision.outcome == PERMANENTLY_DENIED) {
+      permanentlyDeniedCount.incrementAndGet();
+    }
+  }
+
+  private void record(final String permission, byte outcome) {
+    final Decision decision = new Decision(outcome, System.currentTimeMillis());
+    putDecision(permission, decision);
+
+    if (fileSource == null) {
+      return;
+    }
+
+    writeExecutor.execute(new Runnable() {
+      @Override public void run() {
+        if (file != null) {
+          append(permission, decision);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads every record in the file keeping the last decision of each permission. A record
+   * partially written when the process died is discarded, so new records are appended right
+   * after the last valid one.
+   */
+  private void load() {
+    if (file == null || !file.exists()) {
+      return;
+    }
+
+    Map<String, Decision> loadedDecisions = new HashMap<>();
+
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      int validSize = 0;
+      while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+        byte outcome = buffer.get();
+        long timeMillis = buffer.getLong();
+        int nameLength = buffer.getShort() & 0xFFFF;
+        if (outcome < GRANTED || outcome > FORGOTTEN || nameLength > buffer.remaining()) {
+          break;
+        }
+
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        loadedDecisions.put(new String(name, UTF_8), new Decision(outcome, timeMillis));
+        validSize = buffer.position();
+      }
+
+      if (validSize < size) {
+        channel.truncate(validSize);
+      }
+    } catch (IOException e) {
+      // The history is only a hint, a damaged file is treated as an empty one
+    } finally {
+      close(randomAccessFile);
+    }
+
+    for (Map.Entry<String, Decision> entry : loadedDecisions.entrySet()) {
+      putLoadedDecision(entry.getKey(), entry.getValue());
+    }
+
+    if (file.length() > MAX_FILE_SIZE) {
+      compact();
+    }
+  }
+
+  /**
+   * Rewrites the file keeping only the last decision of every permission
+   */
+  private void compact() {
+    File compactedFile = new File(file.getPath() + ".tmp");
+    FileOutputStream outputStream = null;
+    try {
+      outputStream = new FileOutputStream(compactedFile);
+      for (Map.Entry<String, Decision> entry : decisions.entrySet()) {
+        outputStream.write(encode(entry.getKey(), entry.getValue()));
+      }
+      outputStream.getFD().sync();
+      close(outputStream);
+      outputStream = null;
+      if (!compactedFile.renameTo(file)) {
+        compactedFile.delete();
+      }
+    } catch (IOException e) {
+      compactedFile.delete();
+    } finally {
+      close(outputStream);
+    }
+  }
+
+  private void append(String permission, Decision decision) {
+    FileOutputStream outputStream = null;
+    try {
+      outputStream = new FileOutputStream(file, true);
+      outputStream.write(encode(permission, decision));
+    } catch (IOException e) {
+      // A lost record only means the permission is treated as if it had not been requested
+    } finally {
+      close(outputStream);
+    }
+  }
+
+  private static byte[] encode(String permission, Decision decision) {
+    byte[] name = permission.getBytes(UTF_8);
+    return ByteBuffer.allocate(RECORD_HEADER_SIZE + name.length)
+        .put(decision.outcome)
+        .putLong(decision.timeMillis)
+        .putShort((short) name.length)
+        .put(name)
+        .array();
+  }
+
+  private static FileSource fixedFile(final File file) {
+    return new FileSource() {
+      @Override public File getFile() {
+        return file;
+      }
+    };
+  }
+
+  private static void close(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+
+    try {
+      closeable.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /**
+   * Locates the file the decisions are kept in. Only called on the write executor.
+   */
+  private interface FileSource {
+    File getFile();
+  }
+
+  private static final class Decision {
+    private final byte outcome;
+    private final long timeMillis;
+
+    Decision(byte outcome, long timeMillis) {
+      this.outcome = outcome;
+      this.timeMillis = timeMillis;
+    }
+  }
+}
@@ -19,22 +19,24 @@ package com.karumi.dexter;
 final class PermissionRationaleToken implements PermissionToken {
 
   private final DexterInstance dexterInstance;
+  private final int requestId;
   private boolean isTokenResolved = false;
 
-  public PermissionRationaleToken(DexterInstance dexterInstance) {
+  public PermissionRationaleToken(DexterInstance dexterInstance, int requestId) {
     this.dexterInstance = dexterInstance;
+    this.requestId = requestId;
   }
 
   @Override public void continuePermissionRequest() {
     if (!isTokenResolved) {
-      dexterInstance.onContinuePermissionRequest();
+      dexterInstance.onContinuePermissionRequest(requestId);
       isTokenResolved = true;
     }
   }
 
   @Override public void cancelPermissionRequest() {
     if (!isTokenResolved) {
-      dexterInstance.onCancelPermissionRequest();
+      dexterInstance.onCancelPermissionRequest(requestId);
       isTokenResolved = true;
     }
   }
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of permissions stored as a bitmask. Every permission name is interned the first time it is
+ * added to a set and mapped to a small integer id, so set operations between permission sets are
+ * plain bitwise operations over a single long for the usual number of permissions instead of
+ * string comparisons and node allocations. This class is not thread safe.
+ */
+final class PermissionSet extends AbstractSet<String> {
+
+  private static final int BITS_PER_WORD = Long.SIZE;
+  private static final Map<String, Integer> PERMISSION_IDS = new ConcurrentHashMap<>();
+  private static final Object PERMISSION_IDS_MUTEX = new Object();
+  private static volatile String[] permissionNames = new String[BITS_PER_WORD];
+  private static int permissionCount;
+
+  private long[] words;
+
+  PermissionSet() {
+    words = new long[1];
+  }
+
+  PermissionSet(Collection<String> permissions) {
+    this();
+    addAll(permissions);
+  }
+
+  /**
+   * Returns the given collection if it already is a permission set or a new permission set
+   * containing all its permissions otherwise
+   */
+  static PermissionSet from(Collection<String> permissions) {
+    if (permissions instanceof PermissionSet) {
+      return (PermissionSet) permissions;
+    }
+    return new PermissionSet(permissions);
+  }
+
+  /**
+   * Returns the id of the given permission interning it if it has never been seen before
+   */
+  static int idOf(String permission) {
+    Integer id = PERMISSION_IDS.get(permission);
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (PERMISSION_IDS_MUTEX) {
+      id = PERMISSION_IDS.get(permission);
+      if (id == null) {
+        id = permissionCount++;
+        String[] names = permissionNames;
+        if (id >= names.length) {
+          names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[id] = permission;
+        permissionNames = names;
+        PERMISSION_IDS.put(permission, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Returns the name of the permission with the given id
+   */
+  static String nameOf(int id) {
+    return permissionNames[id];
+  }
+
+  /**
+   * Returns the lowest permission id contained in this set greater than or equal to the given one
+   * or -1 if there is none. Used to iterate over the set without allocating an iterator.
+   */
+  int nextId(int fromId) {
+    int wordIndex = fromId / BITS_PER_WORD;
+    if (wordIndex >= words.length) {
+      return -1;
+    }
+
+    long word = words[wordIndex] & (-1L << fromId);
+    while (true) {
+      if (word != 0) {
+        return wordIndex * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordIndex == words.length) {
+        return -1;
+      }
+      word = words[wordIndex];
+    }
+  }
+
+  /**
+   * Returns whether this set and the given one have any permission in common
+   */
+  boolean intersects(PermissionSet permissions) {
+    int commonWords = Math.min(words.length, permissions.words.length);
+    for (int i = 0; i < commonWords; i++) {
+      if ((words[i] & permissions.words[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean containsId(int id) {
+    int wordIndex = id / BITS_PER_WORD;
+    return wordIndex < words.length && (words[wordIndex] & (1L << id)) != 0;
+  }
+
+  @Override public boolean add(String permission) {
+    int id = idOf(permission);
+    int wordIndex = id / BITS_PER_WORD;
+    ensureCapacity(wordIndex + 1);
+    long word = words[wordIndex];
+    words[wordIndex] = word | (1L << id);
+    return words[wordIndex] != word;
+  }
+
+  @Override public boolean contains(Object permission) {
+    if (!(permission instanceof String)) {
+      return false;
+    }
+    Integer id = PERMISSION_IDS.get(permission);
+    return id != null && containsId(id);
+  }
+
+  @Override public boolean remove(Object permission) {
+    if (!(permission instanceof String)) {
+      return false;
+    }
+    Integer id = PERMISSION_IDS.get(permission);
+    if (id == null || !containsId(id)) {
+      return false;
+    }
+    words[id / BITS_PER_WORD] &= ~(1L << id);
+    return true;
+  }
+
+  @Override public boolean addAll(Collection<? extends String> permissions) {
+    if (!(permissions instanceof PermissionSet)) {
+      return super.addAll(permissions);
+    }
+
+    long[] otherWords = ((PermissionSet) permissions).words;
+    ensureCapacity(otherWords.length);
+    boolean modified = false;
+    for (int i = 0; i < otherWords.length; i++) {
+      long word = words[i];
+      words[i] = word | otherWords[i];
+      modified |= words[i] != word;
+    }
+    return modified;
+  }
+
+  @Override public boolean removeAll(Collection<?> permissions) {
+    if (!(permissions instanceof PermissionSet)) {
+      boolean modified = false;
+      for (Object permission : permissions) {
+        modified |= remove(permission);
+      }
+      return modified;
+    }
+
+    long[] otherWords = ((PermissionSet) permissions).words;
+    int commonWords = Math.min(words.length, otherWords.length);
+    boolean modified = false;
+    for (int i = 0; i < commonWords; i++) {
+      long word = words[i];
+      words[i] = word & ~otherWords[i];
+      modified |= words[i] != word;
+    }
+    return modified;
+  }
+
+  @Override public boolean containsAll(Collection<?> permissions) {
+    if (!(permissions instanceof PermissionSet)) {
+      return super.containsAll(permissions);
+    }
+
+    long[] otherWords = ((PermissionSet) permissions).words;
+    for (int i = 0; i < otherWords.length; i++) {
+      long word = i < words.length ? words[i] : 0;
+      if ((otherWords[i] & ~word) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override public int size() {
+    int size = 0;
+    for (long word : words) {
+      size += Long.bitCount(word);
+    }
+    return size;
+  }
+
+  @Override public boolean isEmpty() {
+    for (long word : words) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override public void clear() {
+    Arrays.fill(words, 0);
+  }
+
+  @Override public Iterator<String> iterator() {
+    return new PermissionIterator();
+  }
+
+  @Override public boolean equals(Object object) {
+    if (!(object instanceof PermissionSet)) {
+      return super.equals(object);
+    }
+
+    PermissionSet permissions = (PermissionSet) object;
+    return containsAll(permissions) && permissions.containsAll(this);
+  }
+
+  @Override public int hashCode() {
+    int hashCode = 0;
+    for (int id = nextId(0); id >= 0; id = nextId(id + 1)) {
+      hashCode += nameOf(id).hashCode();
+    }
+    return hashCode;
+  }
+
+  private void ensureCapacity(int wordCount) {
+    if (words.length < wordCount) {
+      words = Arrays.copyOf(words, wordCount);
+    }
+  }
+
+  private final class PermissionIterator implements Iterator<String> {
+
+    private int nextId = nextId(0);
+    private int lastId = -1;
+
+    @Override public boolean hasNext() {
+      return nextId >= 0;
+    }
+
+    @Override public String next() {
+      if (nextId < 0) {
+        throw new NoSuchElementException();
+      }
+      lastId = nextId;
+      nextId = nextId(nextId + 1);
+      return nameOf(lastId);
+    }
+
+    @Override public void remove() {
+      if (lastId < 0) {
+        throw new IllegalStateException();
+      }
+      words[lastId / BITS_PER_WORD] &= ~(1L << lastId);
+      lastId = -1;
+    }
+  }
+}
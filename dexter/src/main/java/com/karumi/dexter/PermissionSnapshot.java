@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.content.pm.PackageInfo;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable picture of the permissions declared in the application manifest and whether they are
+ * granted, read from the package manager in a single call instead of checking them one by one.
+ */
+public final class PermissionSnapshot {
+
+  /**
+   * Snapshot used when the package information is not available
+   */
+  static final PermissionSnapshot EMPTY =
+      new PermissionSnapshot(Collections.<String, Boolean>emptyMap());
+
+  private final Map<String, Boolean> permissionStates;
+
+  private PermissionSnapshot(Map<String, Boolean> permissionStates) {
+    this.permissionStates = permissionStates;
+  }
+
+  /**
+   * Creates a snapshot from the requested permissions of a {@link PackageInfo}
+   *
+   * @param requestedPermissions Permissions declared in the application manifest
+   * @param requestedPermissionsFlags Flags of every requested permission or null if they are not
+   * available, in which case every declared permission is considered granted at install time
+   */
+  static PermissionSnapshot from(String[] requestedPermissions, int[] requestedPermissionsFlags) {
+    if (requestedPermissions == null) {
+      return new PermissionSnapshot(Collections.<String, Boolean>emptyMap());
+    }
+
+    Map<String, Boolean> permissionStates = new HashMap<>(requestedPermissions.length * 2);
+    for (int i = 0; i < requestedPermissions.length; i++) {
+      boolean isGranted = requestedPermissionsFlags == null
+          || (requestedPermissionsFlags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+      permissionStates.put(requestedPermissions[i], isGranted);
+    }
+    return new PermissionSnapshot(Collections.unmodifiableMap(permissionStates));
+  }
+
+  /**
+   * Returns true if the permission is declared in the application manifest
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean isDeclared(String permission) {
+    return permissionStates.containsKey(permission);
+  }
+
+  /**
+   * Returns true if the permission is declared in the application manifest and granted
+   *
+   * @param permission One of the values found in {@link android.Manifest.permission}
+   */
+  public boolean isGranted(String permission) {
+    return Boolean.TRUE.equals(permissionStates.get(permission));
+  }
+
+  /**
+   * Returns true if every one of the given permissions is declared and granted
+   */
+  public boolean areAllGranted(Collection<String> permissions) {
+    for (String permission : permissions) {
+      if (!isGranted(permission)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a read only set with all the permissions declared in the application manifest
+   */
+  public Set<String> getDeclaredPermissions() {
+    return permissionStates.keySet();
+  }
+
+  /**
+   * Returns a copy of this snapshot with the state of the given declared permissions replaced.
+   * Permissions not declared in the manifest are ignored.
+   */
+  PermissionSnapshot withPermissionStates(Collection<String> permissions, boolean isGranted) {
+    Map<String, Boolean> permissionStates = null;
+    for (String permission : permissions) {
+      Boolean permissionState = this.permissionStates.get(permission);
+      if (permissionState == null || permissionState == isGranted) {
+        continue;
+      }
+
+      if (permissionStates == null) {
+        permissionStates = new HashMap<>(this.permissionStates);
+      }
+      permissionStates.put(permission, isGranted);
+    }
+
+    return permissionStates == null ? this
+        : new PermissionSnapshot(Collections.unmodifiableMap(permissionStates));
+  }
+}
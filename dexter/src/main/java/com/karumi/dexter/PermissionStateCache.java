@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process wide cache of the permission states reported by the Android permission system.
+ * Declared permissions are read at once in a {@link PermissionSnapshot} and any other permission
+ * is checked on first use. States are updated with the result of every permission request and
+ * invalidated whenever the application comes back to the foreground, as the user could have
+ * changed them from the system settings in the meantime.
+ */
+final class PermissionStateCache {
+
+  private final AndroidPermissionService androidPermissionService;
+  private final Map<String, Integer> permissionStates;
+  private final AtomicReference<PermissionSnapshot> snapshot;
+  private volatile PermissionSet declaredPermissions;
+
+  PermissionStateCache(AndroidPermissionService androidPermissionService) {
+    this.androidPermissionService = androidPermissionService;
+    this.permissionStates = new ConcurrentHashMap<>();
+    this.snapshot = new AtomicReference<>();
+  }
+
+  /**
+   * Returns the snapshot of the declared permissions querying the package manager only once after
+   * every invalidation. An empty snapshot is returned if the package information is not available.
+   */
+  PermissionSnapshot getSnapshot(Context context) {
+    PermissionSnapshot currentSnapshot = snapshot.get();
+    if (currentSnapshot == null) {
+      PermissionSnapshot newSnapshot = androidPermissionService.getPermissionSnapshot(context);
+      if (newSnapshot == null) {
+        return PermissionSnapshot.EMPTY;
+      }
+      snapshot.compareAndSet(null, newSnapshot);
+      currentSnapshot = newSnapshot;
+    }
+    return currentSnapshot;
+  }
+
+  /**
+   * Returns the index of the permissions declared in the application manifest or null if the
+   * package information is not available. Declared permissions can't change while the process is
+   * alive, so the index is built only once and must not be modified.
+   */
+  PermissionSet getDeclaredPermissions(Context context) {
+    PermissionSet currentDeclaredPermissions = declaredPermissions;
+    if (currentDeclaredPermissions == null) {
+      PermissionSnapshot currentSnapshot = getSnapshot(context);
+      if (currentSnapshot == PermissionSnapshot.EMPTY) {
+        return null;
+      }
+      currentDeclaredPermissions = new PermissionSet(currentSnapshot.getDeclaredPermissions());
+      declaredPermissions = currentDeclaredPermissions;
+    }
+    return currentDeclaredPermissions;
+  }
+
+  /**
+   * Returns the cached state of the given permission asking the Android permission system only
+   * if the permission has not been checked since the last invalidation.
+   *
+   * @return {@link PackageManager#PERMISSION_GRANTED} or {@link PackageManager#PERMISSION_DENIED}
+   */
+  int checkSelfPermission(Context context, String permission) {
+    PermissionSnapshot currentSnapshot = getSnapshot(context);
+    if (currentSnapshot.isDeclared(permission)) {
+      return currentSnapshot.isGranted(permission) ? PackageManager.PERMISSION_GRANTED
+          : PackageManager.PERMISSION_DENIED;
+    }
+
+    Integer permissionState = permissionStates.get(permission);
+    if (permissionState == null) {
+      permissionState = androidPermissionService.checkSelfPermission(context, permission);
+      permissionStates.put(permission, permissionState);
+    }
+    return permissionState;
+  }
+
+  /**
+   * Asks the Android permission system for the state of the given permission, ignoring and then
+   * updating the cached one. Used when the user could have changed it while the application was
+   * still in the foreground, for example from a settings window shown in split screen.
+   *
+   * @return {@link PackageManager#PERMISSION_GRANTED} or {@link PackageManager#PERMISSION_DENIED}
+   */
+  int refreshSelfPermission(Context context, String permission) {
+    int permissionState = androidPermissionService.checkSelfPermission(context, permission);
+    updatePermissionStates(Collections.singleton(permission), permissionState);
+    return permissionState;
+  }
+
+  /**
+   * Updates the cached state of the permissions granted by the user
+   */
+  void onPermissionsGranted(Collection<String> permissions) {
+    updatePermissionStates(permissions, PackageManager.PERMISSION_GRANTED);
+  }
+
+  /**
+   * Updates the cached state of the permissions denied by the user
+   */
+  void onPermissionsDenied(Collection<String> permissions) {
+    updatePermissionStates(permissions, PackageManager.PERMISSION_DENIED);
+  }
+
+  /**
+   * Forgets every cached state so the next check goes to the Android permission system again
+   */
+  void invalidate() {
+    snapshot.set(null);
+    permissionStates.clear();
+  }
+
+  private void updatePermissionStates(Collection<String> permissions, int permissionState) {
+    for (String permission : permissions) {
+      permissionStates.put(permission, permissionState);
+    }
+
+    boolean isGranted = permissionState == PackageManager.PERMISSION_GRANTED;
+    PermissionSnapshot currentSnapshot;
+    do {
+      currentSnapshot = snapshot.get();
+    } while (currentSnapshot != null && !snapshot.compareAndSet(currentSnapshot,
+        currentSnapshot.withPermissionStates(permissions, isGranted)));
+  }
+}
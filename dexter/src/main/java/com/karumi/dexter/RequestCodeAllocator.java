@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Allocates the request codes used to ask the system for permissions and keeps track of the
+ * codes still in flight, so each result is routed to the request that caused it. Results for
+ * codes that are not in flight anymore, for example the ones of a request that timed out while
+ * the system dialog was shown, are discarded instead of being applied to the next request.
+ */
+final class RequestCodeAllocator {
+
+  static final int FIRST_REQUEST_CODE = 42;
+  private static final int MAX_REQUEST_CODE = 0xFFFF;
+
+  private final Set<Integer> inFlightRequestCodes = new HashSet<>();
+  private int nextRequestCode = FIRST_REQUEST_CODE;
+
+  /**
+   * Returns a request code not used by any other request in flight
+   */
+  synchronized int allocate() {
+    while (inFlightRequestCodes.contains(nextRequestCode)) {
+      advance();
+    }
+
+    int requestCode = nextRequestCode;
+    advance();
+    inFlightRequestCodes.add(requestCode);
+    return requestCode;
+  }
+
+  /**
+   * Frees the given request code
+   *
+   * @return True if the code was in flight, false otherwise
+   */
+  synchronized boolean release(int requestCode) {
+    return inFlightRequestCodes.remove(requestCode);
+  }
+
+  /**
+   * Frees every request code, so any result still to come is discarded
+   */
+  synchronized void releaseAll() {
+    inFlightRequestCodes.clear();
+  }
+
+  private void advance() {
+    nextRequestCode = nextRequestCode == MAX_REQUEST_CODE ? 0 : nextRequestCode + 1;
+  }
+}
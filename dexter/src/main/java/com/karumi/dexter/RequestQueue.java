@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FIFO queue of the permission requests received while another one is ongoing. Requests are
+ * started back to back in the same order they were received. This class is not thread safe.
+ */
+final class RequestQueue {
+
+  private final Queue<DexterRequest> requests = new LinkedList<>();
+
+  /**
+   * Adds a request to the end of the queue
+   */
+  void add(DexterRequest request) {
+    request.setEnqueuedAt(System.nanoTime());
+    requests.add(request);
+  }
+
+  /**
+   * Removes and returns the oldest request in the queue or null if the queue is empty
+   */
+  DexterRequest poll() {
+    return requests.poll();
+  }
+
+  /**
+   * Returns the request with the given id or null if it is not in the queue
+   */
+  DexterRequest get(int requestId) {
+    for (DexterRequest request : requests) {
+      if (request.getId() == requestId) {
+        return request;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes the given request from the queue
+   *
+   * @return true if the request was in the queue
+   */
+  boolean remove(DexterRequest request) {
+    return requests.remove(request);
+  }
+
+  /**
+   * Removes and returns, in order, every request asking for any of the given permissions
+   */
+  List<DexterRequest> pollOverlapping(PermissionSet permissions) {
+    List<DexterRequest> overlappingRequests = new LinkedList<>();
+    Iterator<DexterRequest> iterator = requests.iterator();
+    while (iterator.hasNext()) {
+      DexterRequest request = iterator.next();
+      if (permissions.intersects(request.getPermissions())) {
+        overlappingRequests.add(request);
+        iterator.remove();
+      }
+    }
+    return overlappingRequests;
+  }
+
+  /**
+   * Returns the number of requests waiting in the queue
+   */
+  int size() {
+    return requests.size();
+  }
+
+  /**
+   * Returns how long the oldest request in the queue has been waiting
+   */
+  long getLongestWaitTime(TimeUnit unit) {
+    DexterRequest request = requests.peek();
+    if (request == null) {
+      return 0;
+    }
+    return unit.convert(System.nanoTime() - request.getEnqueuedAt(), TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.app.Activity;
+
+/**
+ * Immutable snapshot of the request being processed by a {@link DexterInstance}. Every change
+ * creates a new instance that is published with a compare-and-set, so each transition is
+ * performed by exactly one thread. The listener and the report are never modified once they are
+ * part of a state, changes are made to copies published within a new state.
+ */
+final class RequestState {
+
+  enum Stage {
+    /**
+     * No request is being processed
+     */
+    IDLE,
+    /**
+     * A request has been accepted and is waiting for the inner activity to be ready
+     */
+    LAUNCHING_HOST,
+    /**
+     * A rationale has been shown and the request waits for the token to be used
+     */
+    AWAITING_RATIONALE,
+    /**
+     * The system dialog has been requested and the request waits for its result
+     */
+    AWAITING_SYSTEM,
+    /**
+     * Every permission has been resolved and the report is being delivered to the listener
+     */
+    DISPATCHING
+  }
+
+  static final int NO_REQUEST_ID = -1;
+
+  static final RequestState IDLE = new RequestState(Stage.IDLE, NO_REQUEST_ID,
+      new PermissionSet(), null, new CoalescedMultiplePermissionsListener(),
+      new MultiplePermissionsReport());
+  /**
+   * State of a request just accepted while no inner activity was alive. Shared so accepting a
+   * request from the idle state does not allocate
+   */
+  static final RequestState STARTED = IDLE.withStage(Stage.LAUNCHING_HOST);
+
+  private final Stage stage;
+  private final int requestId;
+  private final PermissionSet pendingPermissions;
+  private final Activity activity;
+  private final CoalescedMultiplePermissionsListener listener;
+  private final MultiplePermissionsReport report;
+
+  RequestState(Stage stage, int requestId, PermissionSet pendingPermissions, Activity activity,
+      CoalescedMultiplePermissionsListener listener, MultiplePermissionsReport report) {
+    this.stage = stage;
+    this.requestId = requestId;
+    this.pendingPermissions = pendingPermissions;
+    this.activity = activity;
+    this.listener = listener;
+    this.report = report;
+  }
+
+  Stage getStage() {
+    return stage;
+  }
+
+  /**
+   * Returns the id of the request that started the ongoing one, or {@link #NO_REQUEST_ID} if it
+   * has not been started yet
+   */
+  int getRequestId() {
+    return requestId;
+  }
+
+  /**
+   * Returns the permissions not resolved yet. The returned set must not be modified
+   */
+  PermissionSet getPendingPermissions() {
+    return pendingPermissions;
+  }
+
+  Activity getActivity() {
+    return activity;
+  }
+
+  CoalescedMultiplePermissionsListener getListener() {
+    return listener;
+  }
+
+  MultiplePermissionsReport getReport() {
+    return report;
+  }
+
+  boolean is(Stage stage) {
+    return this.stage == stage;
+  }
+
+  /**
+   * Returns true if the user has not been asked about the pending permissions through the
+   * system dialog yet
+   */
+  boolean isBeforeSystemRequest() {
+    return stage == Stage.LAUNCHING_HOST || stage == Stage.AWAITING_RATIONALE;
+  }
+
+  RequestState withStage(Stage stage) {
+    if (this.stage == stage) {
+      return this;
+    }
+    return new RequestState(stage, requestId, pendingPermissions, activity, listener, report);
+  }
+
+  RequestState withPendingPermissions(PermissionSet pendingPermissions) {
+    return new RequestState(stage, requestId, pendingPermissions, activity, listener, report);
+  }
+
+  RequestState withActivity(Activity activity) {
+    if (this.activity == activity) {
+      return this;
+    }
+    return new RequestState(stage, requestId, pendingPermissions, activity, listener, report);
+  }
+
+  RequestState withListener(CoalescedMultiplePermissionsListener listener) {
+    return new RequestState(stage, requestId, pendingPermissions, activity, listener, report);
+  }
+
+  RequestState withReport(MultiplePermissionsReport report) {
+    return new RequestState(stage, requestId, pendingPermissions, activity, listener, report);
+  }
+}
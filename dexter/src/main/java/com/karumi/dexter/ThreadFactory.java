@@ -17,17 +17,32 @@
 package com.karumi.dexter;
 
 import android.os.Looper;
+import java.util.concurrent.Executor;
 
 /**
  * Factory to create the different thread implementations
  */
 final class ThreadFactory {
 
+  private static final MainThread MAIN_THREAD =
+      new MainThread(MainThreadDispatcher.getInstance());
+  private static final MainThread IDLE_MAIN_THREAD =
+      new MainThread(MainThreadDispatcher.getIdleInstance());
+
   /**
-   * Create a thread to execute on the main thread
+   * Returns the thread to execute on the main thread. It holds no request state, so the same
+   * instance is shared by every request
    */
   public static Thread makeMainThread() {
-    return new MainThread();
+    return MAIN_THREAD;
+  }
+
+  /**
+   * Returns the thread to execute on the main thread once it is idle, so listeners are not
+   * notified while layout or draw work is pending
+   */
+  public static Thread makeIdleMainThread() {
+    return IDLE_MAIN_THREAD;
   }
 
   /**
@@ -35,13 +50,20 @@ final class ThreadFactory {
    */
   public static Thread makeSameThread() {
     if (runningMainThread()) {
-      return new MainThread();
+      return MAIN_THREAD;
     } else {
       return new WorkerThread();
     }
   }
 
-  private static boolean runningMainThread() {
+  /**
+   * Create a thread to execute on the given executor
+   */
+  public static Thread makeExecutorThread(Executor executor) {
+    return new ExecutorThread(executor);
+  }
+
+  static boolean runningMainThread() {
     return Looper.getMainLooper().getThread() == java.lang.Thread.currentThread();
   }
 }
@@ -20,11 +20,33 @@ public enum DexterError {
   /**
    * Error code used when the user tries to request permissions before all previous
    * requests has finished.
+   *
+   * @deprecated requests received while another one is ongoing are queued and this error is not
+   * reported anymore.
    */
-  REQUEST_ONGOING,
+  @Deprecated REQUEST_ONGOING,
 
   /**
    * Error code used when Dexter is called with no permissions.
    */
-  NO_PERMISSIONS_REQUESTED
+  NO_PERMISSIONS_REQUESTED,
+
+  /**
+   * Error code used when Dexter is called with a permission that is not declared in the
+   * application manifest. The request is rejected without showing anything to the user, as the
+   * system would deny it anyway.
+   */
+  PERMISSION_NOT_DECLARED,
+
+  /**
+   * Error code used when a request has not finished before its timeout expired. The request is
+   * discarded and its listener is not notified.
+   */
+  REQUEST_TIMED_OUT,
+
+  /**
+   * Error code used when a request has been cancelled before finishing. The request is discarded
+   * and its listener is not notified.
+   */
+  REQUEST_CANCELLED
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter.listener;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics listener aggregating, for every phase, the time elapsed since the request was accepted
+ * into a histogram with power of two buckets. Recording a phase does not allocate memory nor
+ * take any lock, so it can be used in production builds.
+ *
+ * Up to {@link #MAX_TRACKED_REQUESTS} requests can be tracked at the same time. Older requests
+ * still ongoing are overwritten by the new ones.
+ */
+public class HistogramPermissionRequestMetricsListener
+    implements PermissionRequestMetricsListener {
+
+  public static final int MAX_TRACKED_REQUESTS = 256;
+
+  private static final int BUCKET_COUNT = Long.SIZE;
+  private static final PermissionRequestPhase[] PHASES = PermissionRequestPhase.values();
+
+  private final AtomicLongArray acceptedTimestamps = new AtomicLongArray(MAX_TRACKED_REQUESTS);
+  private final AtomicLongArray histograms = new AtomicLongArray(PHASES.length * BUCKET_COUNT);
+
+  @Override public void onRequestPhase(int requestId, PermissionRequestPhase phase,
+      long timestamp) {
+    int slot = requestId & (MAX_TRACKED_REQUESTS - 1);
+    if (phase == PermissionRequestPhase.REQUEST_ACCEPTED) {
+      acceptedTimestamps.set(slot, timestamp);
+    }
+
+    long elapsedTime = timestamp - acceptedTimestamps.get(slot);
+    histograms.incrementAndGet(phase.ordinal() * BUCKET_COUNT + getBucket(elapsedTime));
+  }
+
+  /**
+   * Returns how many requests have reached the given phase
+   */
+  public long getCount(PermissionRequestPhase phase) {
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      count += histograms.get(phase.ordinal() * BUCKET_COUNT + bucket);
+    }
+    return count;
+  }
+
+  /**
+   * Returns an upper bound of the time elapsed since the request was accepted until it reached
+   * the given phase for the given percentage of the requests. As the histogram buckets are powers
+   * of two, the returned value is at most twice the real one.
+   *
+   * @param phase The phase to get the elapsed time for
+   * @param percentile Percentage of the requests, between 0 and 100. Use 99 to get the p99
+   * @param unit Time unit of the returned value
+   */
+  public long getPercentile(PermissionRequestPhase phase, double percentile, TimeUnit unit) {
+    long count = getCount(phase);
+    if (count == 0) {
+      return 0;
+    }
+
+    long threshold = (long) Math.ceil(count * percentile / 100);
+    long accumulatedCount = 0;
+    int bucket = 0;
+    for (; bucket < BUCKET_COUNT - 1; bucket++) {
+      accumulatedCount += histograms.get(phase.ordinal() * BUCKET_COUNT + bucket);
+      if (accumulatedCount >= threshold) {
+        break;
+      }
+    }
+    return unit.convert(getBucketUpperBound(bucket), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Clears every recorded value
+   */
+  public void reset() {
+    for (int i = 0; i < histograms.length(); i++) {
+      histograms.set(i, 0);
+    }
+  }
+
+  private static int getBucket(long elapsedTime) {
+    if (elapsedTime <= 0) {
+      return 0;
+    }
+    return Math.min(BUCKET_COUNT - Long.numberOfLeadingZeros(elapsedTime), BUCKET_COUNT - 1);
+  }
+
+  private static long getBucketUpperBound(int bucket) {
+    return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+}
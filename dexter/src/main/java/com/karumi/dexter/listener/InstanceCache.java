@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter.listener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe cache of the immutable instances created for every permission name. Instances are
+ * created the first time a permission is asked for and shared afterwards. If two threads race to
+ * create the same instance only one of them is kept.
+ */
+abstract class InstanceCache<T> {
+
+  private final ConcurrentMap<String, T> instances = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the shared instance for the given permission, creating it if needed
+   */
+  T get(String permission) {
+    T instance = instances.get(permission);
+    if (instance == null) {
+      T newInstance = create(permission);
+      instance = instances.putIfAbsent(permission, newInstance);
+      if (instance == null) {
+        instance = newInstance;
+      }
+    }
+    return instance;
+  }
+
+  abstract T create(String permission);
+}
@@ -24,6 +24,11 @@ import android.support.annotation.NonNull;
  */
 public final class PermissionDeniedResponse {
 
+  private static final InstanceCache<PermissionDeniedResponse> DENIED_INSTANCES =
+      new DeniedResponseCache(false);
+  private static final InstanceCache<PermissionDeniedResponse> PERMANENTLY_DENIED_INSTANCES =
+      new DeniedResponseCache(true);
+
   private final PermissionRequest requestedPermission;
   private final boolean permanentlyDenied;
 
@@ -34,12 +39,15 @@ public final class PermissionDeniedResponse {
   }
 
   /**
-   * Builds a new instance of PermissionDeniedResponse from a given permission string
-   * and a permanently-denied boolean flag
+   * Returns the shared instance of PermissionDeniedResponse for a given permission string
+   * and a permanently-denied boolean flag. Responses are immutable, so they are created once per
+   * permission and flag and reused afterwards
    */
   public static PermissionDeniedResponse from(@NonNull String permission,
       boolean permanentlyDenied) {
-    return new PermissionDeniedResponse(new PermissionRequest(permission), permanentlyDenied);
+    InstanceCache<PermissionDeniedResponse> instances =
+        permanentlyDenied ? PERMANENTLY_DENIED_INSTANCES : DENIED_INSTANCES;
+    return instances.get(permission);
   }
 
   public PermissionRequest getRequestedPermission() {
@@ -53,4 +61,17 @@ public final class PermissionDeniedResponse {
   public boolean isPermanentlyDenied() {
     return permanentlyDenied;
   }
+
+  private static final class DeniedResponseCache extends InstanceCache<PermissionDeniedResponse> {
+
+    private final boolean permanentlyDenied;
+
+    DeniedResponseCache(boolean permanentlyDenied) {
+      this.permanentlyDenied = permanentlyDenied;
+    }
+
+    @Override PermissionDeniedResponse create(String permission) {
+      return new PermissionDeniedResponse(PermissionRequest.from(permission), permanentlyDenied);
+    }
+  }
 }
@@ -24,6 +24,13 @@ import android.support.annotation.NonNull;
  */
 public final class PermissionGrantedResponse {
 
+  private static final InstanceCache<PermissionGrantedResponse> INSTANCES =
+      new InstanceCache<PermissionGrantedResponse>() {
+        @Override PermissionGrantedResponse create(String permission) {
+          return new PermissionGrantedResponse(PermissionRequest.from(permission));
+        }
+      };
+
   private final PermissionRequest requestedPermission;
 
   public PermissionGrantedResponse(@NonNull PermissionRequest requestedPermission) {
@@ -31,10 +38,11 @@ public final class PermissionGrantedResponse {
   }
 
   /**
-   * Builds a new instance of PermissionGrantedResponse from a given permission string
+   * Returns the shared instance of PermissionGrantedResponse for a given permission string.
+   * Responses are immutable, so they are created once per permission and reused afterwards
    */
   public static PermissionGrantedResponse from(@NonNull String permission) {
-    return new PermissionGrantedResponse(new PermissionRequest(permission));
+    return INSTANCES.get(permission);
   }
 
   public PermissionRequest getRequestedPermission() {
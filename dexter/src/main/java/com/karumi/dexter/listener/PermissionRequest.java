@@ -23,12 +23,27 @@ import android.support.annotation.NonNull;
  */
 public final class PermissionRequest {
 
+  private static final InstanceCache<PermissionRequest> INSTANCES =
+      new InstanceCache<PermissionRequest>() {
+        @Override PermissionRequest create(String permission) {
+          return new PermissionRequest(permission);
+        }
+      };
+
   private final String name;
 
   public PermissionRequest(@NonNull String name) {
     this.name = name;
   }
 
+  /**
+   * Returns the shared instance of PermissionRequest for a given permission string. Instances
+   * are immutable, so they are created once per permission and reused afterwards
+   */
+  public static PermissionRequest from(@NonNull String permission) {
+    return INSTANCES.get(permission);
+  }
+
   /**
    * One of the values found in {@link android.Manifest.permission}
    */
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter.listener;
+
+/**
+ * Listener to be notified every time a permission request reaches a new phase. Use it to find
+ * out where the time goes between a permission check and its result.
+ */
+public interface PermissionRequestMetricsListener {
+  /**
+   * Method called whenever a permission request reaches a new phase. It is called on the thread
+   * that makes the request progress, so implementations should return as fast as possible.
+   *
+   * @param requestId Identifier of the request, shared by all the phases of the same request
+   * @param phase The phase the request has just reached
+   * @param timestamp Time the phase was reached in nanoseconds, as returned by
+   * {@link System#nanoTime()}
+   */
+  void onRequestPhase(int requestId, PermissionRequestPhase phase, long timestamp);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter.listener;
+
+/**
+ * Phases a permission request goes through from the moment it is accepted by Dexter until its
+ * listener is notified. Some of them are skipped depending on the permissions state, for example,
+ * requests for permissions already granted go straight to {@link #LISTENER_DISPATCHED}.
+ */
+public enum PermissionRequestPhase {
+  /**
+   * The request has been accepted by Dexter, even if it has to wait for a previous one to finish.
+   */
+  REQUEST_ACCEPTED,
+
+  /**
+   * The inner Dexter activity has been created and is ready to request the permissions.
+   */
+  ACTIVITY_READY,
+
+  /**
+   * The listener has been asked to show a rationale to the user.
+   */
+  RATIONALE_SHOWN,
+
+  /**
+   * The rationale token has been used to continue with the request.
+   */
+  RATIONALE_CONTINUED,
+
+  /**
+   * The permissions have been requested to the system, which shows its permission dialog.
+   */
+  SYSTEM_DIALOG_REQUESTED,
+
+  /**
+   * The system has returned the result of the permissions request.
+   */
+  SYSTEM_DIALOG_RESULT,
+
+  /**
+   * The listener has been notified with the report of the request.
+   */
+  LISTENER_DISPATCHED
+}
@@ -19,24 +19,56 @@ package com.karumi.dexter;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import com.karumi.dexter.RetryCheckPermissionOnDeniedPermissionListener.CheckPermissionAction;
+import com.karumi.dexter.listener.DexterError;
+import com.karumi.dexter.listener.EmptyPermissionRequestMetricsListener;
 import com.karumi.dexter.listener.PermissionDeniedResponse;
 import com.karumi.dexter.listener.PermissionGrantedResponse;
 import com.karumi.dexter.listener.PermissionRequest;
+import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import com.karumi.dexter.listener.PermissionRequestMetricsListener;
+import com.karumi.dexter.listener.PermissionRequestPhase;
+import com.karumi.dexter.listener.multi.EmptyMultiplePermissionsListener;
 import com.karumi.dexter.listener.multi.MultiplePermissionsListener;
 import com.karumi.dexter.listener.single.PermissionListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -44,6 +76,8 @@ import static org.mockito.Mockito.when;
 @RunWith(MockitoJUnitRunner.class) public class DexterInstanceTest {
 
   private static final String ANY_PERMISSION = "noissimrep yna";
+  private static final String OTHER_PERMISSION = "noissimrep rehto";
+  private static final String ANOTHER_PERMISSION = "noissimrep rehtona";
   private static final Thread THREAD = new TestThread();
 
   @Mock AndroidPermissionService androidPermissionService;
@@ -52,16 +86,26 @@ import static org.mockito.Mockito.when;
   @Mock Activity activity;
   @Mock MultiplePermissionsListener multiplePermissionsListener;
   @Mock PermissionListener permissionListener;
+  @Mock PermissionRequestErrorListener errorListener;
+  @Mock HostFragmentProvider hostFragmentProvider;
+  @Mock HostFragment hostFragment;
 
+  protected IntentProvider intentProvider;
+  protected PermissionStateCache permissionStateCache;
+  protected PermissionHistory permissionHistory;
   protected DexterInstance dexter;
   protected AsyncExecutor asyncExecutor;
 
   @Before public void setUp() {
-    IntentProvider intentProvider = new IntentMockProvider(intent);
+    intentProvider = new IntentMockProvider(intent);
     Context mockApplicationContext = mock(Context.class);
     when(context.getApplicationContext()).thenReturn(mockApplicationContext);
     asyncExecutor = new AsyncExecutor();
-    dexter = new DexterInstance(context, androidPermissionService, intentProvider);
+    permissionStateCache = new PermissionStateCache(androidPermissionService);
+    permissionHistory = new PermissionHistory(null, null);
+    when(hostFragmentProvider.isInnerActivity(activity)).thenReturn(true);
+    dexter = new DexterInstance(context, androidPermissionService, permissionStateCache,
+        permissionHistory, intentProvider, hostFragmentProvider, THREAD);
   }
 
   @Test(expected = IllegalStateException.class)
@@ -69,10 +113,466 @@ import static org.mockito.Mockito.when;
     dexter.checkPermissions(multiplePermissionsListener, Collections.<String>emptyList(), THREAD);
   }
 
-  @Test(expected = IllegalStateException.class)
-  public void onCheckPermissionMoreThanOnceThenThrowException() {
+  @Test public void onPermissionNotDeclaredThenThrowExceptionWithoutStartingTheActivity() {
+    givenPermissionsAreDeclared(new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED },
+        OTHER_PERMISSION);
+
+    try {
+      dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+      fail();
+    } catch (DexterException e) {
+      assertEquals(DexterError.PERMISSION_NOT_DECLARED, e.error);
+    }
+    verify(context, never()).startActivity(intent);
+  }
+
+  @Test public void onDeclaredPermissionGrantedThenSystemIsNotAskedForEachPermission() {
+    givenPermissionsAreDeclared(new int[] {
+        PackageInfo.REQUESTED_PERMISSION_GRANTED, PackageInfo.REQUESTED_PERMISSION_GRANTED
+    }, ANY_PERMISSION, OTHER_PERMISSION);
+
+    dexter.checkPermissions(multiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION), THREAD);
+
+    verify(multiplePermissionsListener).onPermissionsChecked(any(MultiplePermissionsReport.class));
+    verify(androidPermissionService, never()).checkSelfPermission(any(Context.class),
+        any(String.class));
+    verify(context, never()).startActivity(intent);
+  }
+
+  @Test public void onPermissionPermanentlyDeniedThenIsReportedWithoutStartingTheActivity() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    permissionHistory.onPermissionDenied(ANY_PERMISSION, true);
+
     dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    verify(permissionListener).onPermissionDenied(
+        argThat(getPermissionDeniedResponseMatcher(ANY_PERMISSION, true)));
+    verify(context, never()).startActivity(intent);
+  }
+
+  @Test public void onPermissionPermanentlyDeniedThenOnlyTheOtherOnesAreRequestedToTheSystem() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenPermissionIsAlreadyDenied(OTHER_PERMISSION);
+    givenShouldNotShowRationaleForPermission(OTHER_PERMISSION);
+    permissionHistory.onPermissionDenied(ANY_PERMISSION, true);
+    ArgumentCaptor<MultiplePermissionsReport> reportCaptor =
+        ArgumentCaptor.forClass(MultiplePermissionsReport.class);
+
+    dexter.checkPermissions(multiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION), THREAD);
+    dexter.onActivityReady(activity);
+    dexter.onPermissionsRequested(Collections.singletonList(OTHER_PERMISSION),
+        Collections.<String>emptyList());
+
+    verify(androidPermissionService).requestPermissions(activity, new String[] { OTHER_PERMISSION },
+        42);
+    verify(multiplePermissionsListener).onPermissionsChecked(reportCaptor.capture());
+    MultiplePermissionsReport report = reportCaptor.getValue();
+    assertTrue(report.getDeniedPermissionResponse(ANY_PERMISSION).isPermanentlyDenied());
+    assertEquals(OTHER_PERMISSION,
+        report.getGrantedPermissionResponses().get(0).getPermissionName());
+  }
+
+  @Test public void onPermanentlyDeniedPermissionGrantedFromTheSettingsThenDenialIsForgotten() {
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+    permissionHistory.onPermissionDenied(ANY_PERMISSION, true);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    assertFalse(permissionHistory.isPermanentlyDenied(ANY_PERMISSION));
+  }
+
+  @Test public void onPermanentDenialTheSystemDoesNotEnforceAnymoreThenPermissionIsRequested() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldShowRationaleForPermission(ANY_PERMISSION);
+    permissionHistory.onPermissionDenied(ANY_PERMISSION, true);
+    dexter.updateContext(activity);
+
     dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    verify(permissionListener, never()).onPermissionDenied(any(PermissionDeniedResponse.class));
+    verify(activity).startActivity(intent);
+    assertFalse(permissionHistory.isPermanentlyDenied(ANY_PERMISSION));
+  }
+
+  @Test public void onPermanentDenialForgottenThenPermissionIsRequestedAgain() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    permissionHistory.onPermissionDenied(ANY_PERMISSION, true);
+    permissionHistory.forget(ANY_PERMISSION);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    verify(permissionListener, never()).onPermissionDenied(any(PermissionDeniedResponse.class));
+    verify(context).startActivity(intent);
+  }
+
+  @Test public void onRationaleAcceptedThenOnlyPermissionsStillDeniedAreRequestedToTheSystem() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenPermissionIsAlreadyDenied(OTHER_PERMISSION);
+    givenShouldShowRationaleForPermission(ANY_PERMISSION);
+    givenShouldShowRationaleForPermission(OTHER_PERMISSION);
+
+    dexter.checkPermissions(multiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION), THREAD);
+    dexter.onActivityReady(activity);
+    givenPermissionIsGrantedFromTheSettings(ANY_PERMISSION);
+    getRationaleToken(multiplePermissionsListener).continuePermissionRequest();
+
+    verify(androidPermissionService).requestPermissions(activity, new String[] { OTHER_PERMISSION },
+        42);
+  }
+
+  @Test public void onRationaleAcceptedAndEveryPermissionGrantedThenSystemIsNotAsked() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldShowRationaleForPermission(ANY_PERMISSION);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    givenPermissionIsGrantedFromTheSettings(ANY_PERMISSION);
+    getRationaleToken(permissionListener).continuePermissionRequest();
+
+    thenPermissionIsGranted(ANY_PERMISSION);
+    verify(androidPermissionService, never()).requestPermissions(any(Activity.class),
+        any(String[].class), anyInt());
+  }
+
+  @Test public void onPermissionGrantedInTheForegroundWhileRationaleShownThenSystemIsNotAsked() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldShowRationaleForPermission(ANY_PERMISSION);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+    getRationaleToken(permissionListener).continuePermissionRequest();
+
+    thenPermissionIsGranted(ANY_PERMISSION);
+    verify(androidPermissionService, never()).requestPermissions(any(Activity.class),
+        any(String[].class), anyInt());
+  }
+
+  @Test public void onRationaleTokenOfACancelledRequestUsedThenNextRequestIsNotResolvedWithIt() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldShowRationaleForPermission(ANY_PERMISSION);
+
+    int requestId = whenCheckPermissions(Collections.singletonList(ANY_PERMISSION), 0);
+    dexter.onActivityReady(activity);
+    PermissionToken cancelledRequestToken = getRationaleToken(multiplePermissionsListener);
+    dexter.cancelRequest(requestId);
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    cancelledRequestToken.cancelPermissionRequest();
+
+    verify(permissionListener, never()).onPermissionDenied(any(PermissionDeniedResponse.class));
+    getRationaleToken(permissionListener).continuePermissionRequest();
+    verify(androidPermissionService).requestPermissions(activity, new String[] { ANY_PERMISSION },
+        42);
+  }
+
+  @Test public void onResultWithUnknownRequestCodeThenIsDiscarded() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    ArgumentCaptor<Integer> requestCodeCaptor = ArgumentCaptor.forClass(Integer.class);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    verify(androidPermissionService).requestPermissions(eq(activity), any(String[].class),
+        requestCodeCaptor.capture());
+    int requestCode = requestCodeCaptor.getValue();
+    dexter.onPermissionsRequested(requestCode + 1, Collections.singletonList(ANY_PERMISSION),
+        Collections.<String>emptyList());
+
+    verify(permissionListener, never()).onPermissionGranted(any(PermissionGrantedResponse.class));
+
+    dexter.onPermissionsRequested(requestCode, Collections.singletonList(ANY_PERMISSION),
+        Collections.<String>emptyList());
+
+    thenPermissionIsGranted(ANY_PERMISSION);
+  }
+
+  @Test public void onResultOfACancelledRequestThenNextRequestIsNotResolvedWithIt() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    ArgumentCaptor<Integer> requestCodeCaptor = ArgumentCaptor.forClass(Integer.class);
+
+    int requestId = whenCheckPermissions(Collections.singletonList(ANY_PERMISSION), 0);
+    dexter.onActivityReady(activity);
+    verify(androidPermissionService).requestPermissions(eq(activity), any(String[].class),
+        requestCodeCaptor.capture());
+    dexter.cancelRequest(requestId);
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    dexter.onPermissionsRequested(requestCodeCaptor.getValue(),
+        Collections.singletonList(ANY_PERMISSION), Collections.<String>emptyList());
+
+    verify(permissionListener, never()).onPermissionGranted(any(PermissionGrantedResponse.class));
+  }
+
+  @Test public void onRequestFinishedThenItsRequestCodesAreReleased() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    when(androidPermissionService.shouldShowRequestPermissionRationale(activity, ANY_PERMISSION))
+        .thenReturn(false, true);
+    ArgumentCaptor<Integer> requestCodeCaptor = ArgumentCaptor.forClass(Integer.class);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    verify(androidPermissionService).requestPermissions(eq(activity), any(String[].class),
+        requestCodeCaptor.capture());
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    dexter.onPermissionsRequested(requestCodeCaptor.getValue(),
+        Collections.singletonList(ANY_PERMISSION), Collections.<String>emptyList());
+
+    verify(permissionListener, never()).onPermissionGranted(any(PermissionGrantedResponse.class));
+  }
+
+  @Test public void onCheckPermissionMoreThanOnceThenRequestIsQueued() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    assertEquals(1, dexter.getQueuedRequestCount());
+  }
+
+  @Test public void onQueuedRequestThenNotifiesListenerWhenPreviousRequestFinishes() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    PermissionListener queuedPermissionListener = mock(PermissionListener.class);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    dexter.checkPermission(queuedPermissionListener, ANY_PERMISSION, THREAD);
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+
+    thenPermissionIsPermanentlyDenied(ANY_PERMISSION);
+    verify(queuedPermissionListener).onPermissionDenied(
+        argThat(getPermissionDeniedResponseMatcher(ANY_PERMISSION, true)));
+    assertEquals(0, dexter.getQueuedRequestCount());
+  }
+
+  @Test public void onPermissionResultReceivedTwiceThenListenerIsNotifiedOnce() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+
+    thenPermissionIsPermanentlyDenied(ANY_PERMISSION);
+    assertFalse(dexter.isRequestOngoing());
+  }
+
+  @Test public void onSessionOpenThenActivityIsFinishedWhenTheSessionIsClosed() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+
+    dexter.openSession();
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+    verify(activity, never()).finish();
+    dexter.closeSession();
+
+    thenPermissionIsPermanentlyDenied(ANY_PERMISSION);
+    verify(activity).finish();
+  }
+
+  @Test public void onSessionClosedTwiceThenOtherOpenSessionsKeepTheActivity() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    dexter.openSession();
+    dexter.openSession();
+    DexterSession session = new DexterSession(activity, dexter);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+    session.close();
+    session.close();
+
+    verify(activity, never()).finish();
+  }
+
+  @Test public void onSessionClosedWhileRequestOngoingThenActivityIsFinishedWhenRequestEnds() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    dexter.openSession();
+    DexterSession session = new DexterSession(activity, dexter);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    session.close();
+    verify(activity, never()).finish();
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+
+    verify(activity).finish();
+  }
+
+  @Test public void onSessionClosedWithoutRequestsThenNoActivityIsFinished() {
+    dexter.openSession();
+    DexterSession session = new DexterSession(activity, dexter);
+
+    session.close();
+
+    verify(activity, never()).finish();
+    assertFalse(dexter.isRequestOngoing());
+  }
+
+  @Test public void onContextDestroyedWhileSessionOpenThenInstanceIsKept() {
+    dexter.openSession();
+    dexter.updateContext(activity);
+
+    assertFalse(dexter.onActivityDestroyed(activity));
+  }
+
+  @Test public void onRequestCancelledThenErrorListenerIsNotifiedInsteadOfTheListener() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+
+    int requestId = whenCheckPermissions(Collections.singletonList(ANY_PERMISSION), 0);
+    dexter.cancelRequest(requestId);
+    dexter.onPermissionRequestDenied(Collections.singletonList(ANY_PERMISSION));
+
+    verify(errorListener).onError(DexterError.REQUEST_CANCELLED);
+    verify(multiplePermissionsListener, never()).onPermissionsChecked(
+        any(MultiplePermissionsReport.class));
+    assertFalse(dexter.isRequestOngoing());
+  }
+
+  @Test public void onRequestTimedOutThenNextRequestIsStarted() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenPermissionIsAlreadyGranted(OTHER_PERMISSION);
+
+    whenCheckPermissions(Collections.singletonList(ANY_PERMISSION), 1);
+    dexter.checkPermission(permissionListener, OTHER_PERMISSION, THREAD);
+
+    verify(errorListener, timeout(1000)).onError(DexterError.REQUEST_TIMED_OUT);
+    verify(permissionListener, timeout(1000)).onPermissionGranted(
+        argThat(getPermissionGrantedResponseMatcher(OTHER_PERMISSION)));
+  }
+
+  @Test public void onRequestContinuedThenItFinishesWithoutTimingOut() throws Exception {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+
+    whenCheckPermissions(Collections.singletonList(ANY_PERMISSION), 50);
+    whenContinueWithTheCheckPermissionProcess(permissionListener);
+    dexter.onActivityReady(activity);
+    dexter.onPermissionRequestGranted(Collections.singletonList(ANY_PERMISSION));
+    java.lang.Thread.sleep(200);
+
+    verify(multiplePermissionsListener).onPermissionsChecked(any(MultiplePermissionsReport.class));
+    thenPermissionIsGranted(ANY_PERMISSION);
+    verify(errorListener, never()).onError(any(DexterError.class));
+  }
+
+  @Test public void onRequestTimedOutThenItExpiresOnTheMainThread() throws Exception {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    PendingThread mainThread = new PendingThread();
+    dexter = new DexterInstance(context, androidPermissionService, permissionStateCache,
+        permissionHistory, intentProvider, hostFragmentProvider, mainThread);
+
+    whenCheckPermissions(Collections.singletonList(ANY_PERMISSION), 1);
+    Runnable expiration = mainThread.takePending();
+    verify(errorListener, never()).onError(any(DexterError.class));
+    expiration.run();
+
+    verify(errorListener).onError(DexterError.REQUEST_TIMED_OUT);
+    assertFalse(dexter.isRequestOngoing());
+  }
+
+  @Test public void onGrantedRequestDispatchedOnAWorkerThreadThenNextRequestStartsOnTheMainThread()
+      throws Exception {
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+    givenPermissionIsAlreadyDenied(OTHER_PERMISSION);
+    PendingThread mainThread = new PendingThread();
+    PendingThread listenerThread = new PendingThread();
+    dexter = new DexterInstance(context, androidPermissionService, permissionStateCache,
+        permissionHistory, intentProvider, hostFragmentProvider, mainThread);
+
+    dexter.checkPermissions(multiplePermissionsListener, Collections.singletonList(ANY_PERMISSION),
+        listenerThread);
+    dexter.checkPermission(permissionListener, OTHER_PERMISSION, THREAD);
+    listenerThread.takePending().run();
+    verify(multiplePermissionsListener).onPermissionsChecked(any(MultiplePermissionsReport.class));
+    verify(context, never()).startActivity(intent);
+    mainThread.takePending().run();
+
+    verify(context).startActivity(intent);
+  }
+
+  @Test public void onContextDestroyedThenInstanceCanBeReleased() {
+    Context applicationContext = mock(Context.class);
+    when(activity.getApplicationContext()).thenReturn(applicationContext);
+    dexter.updateContext(activity);
+
+    assertTrue(dexter.onActivityDestroyed(activity));
+    assertFalse(dexter.onActivityDestroyed(activity));
+  }
+
+  @Test public void onContextDestroyedWhileRequestOngoingThenInstanceIsKept() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    dexter.updateContext(activity);
+
+    assertFalse(dexter.onActivityDestroyed(activity));
+  }
+
+  @Test public void onActivityContextThenPermissionsAreRequestedThroughAFragment() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    givenAFragmentCanBeAttachedTo(activity);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    verify(hostFragmentProvider).attach(activity, IntentProvider.NO_HOST_KEY);
+    dexter.onFragmentReady(hostFragment);
+
+    verify(androidPermissionService).requestPermissions(hostFragment,
+        new String[] { ANY_PERMISSION }, 42);
+    verify(activity, never()).startActivity(any(Intent.class));
+  }
+
+  @Test public void onRequestHostedInAFragmentFinishedThenOnlyTheFragmentIsRemoved() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    givenAFragmentCanBeAttachedTo(activity);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    dexter.onFragmentReady(hostFragment);
+    dexter.onPermissionsRequested(42, Collections.singletonList(ANY_PERMISSION),
+        Collections.<String>emptyList());
+
+    thenPermissionIsGranted(ANY_PERMISSION);
+    verify(hostFragment).remove();
+    verify(activity, never()).finish();
+  }
+
+  @Test public void onHostFragmentAlreadyGoneThenCallerActivityIsNotFinished() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenShouldNotShowRationaleForPermission(ANY_PERMISSION);
+    givenAFragmentCanBeAttachedTo(activity);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+    dexter.onFragmentReady(hostFragment);
+    when(hostFragment.getActivity()).thenReturn(null);
+    dexter.onPermissionsRequested(42, Collections.singletonList(ANY_PERMISSION),
+        Collections.<String>emptyList());
+
+    thenPermissionIsGranted(ANY_PERMISSION);
+    verify(activity, never()).finish();
+  }
+
+  @Test public void onActivityContextUnableToHostAFragmentThenInnerActivityIsStarted() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    dexter.updateContext(activity);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    verify(activity).startActivity(intent);
+    verify(intent, never()).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    verify(hostFragmentProvider, never()).attach(any(Activity.class), anyInt());
+  }
+
+  @Test public void onNonActivityContextThenInnerActivityIsStartedInANewTask() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    verify(context).startActivity(intent);
+    verify(intent).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+    verify(hostFragmentProvider, never()).attach(any(Activity.class), anyInt());
   }
 
   @Test public void onPermissionAlreadyGrantedThenNotifiesListener() {
@@ -83,6 +583,52 @@ import static org.mockito.Mockito.when;
     thenPermissionIsGranted(ANY_PERMISSION);
   }
 
+  @Test public void onPermissionAlreadyGrantedThenActivityIsNotStarted() {
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, THREAD);
+
+    thenPermissionIsGranted(ANY_PERMISSION);
+    verify(context, never()).startActivity(any(Intent.class));
+  }
+
+  @Test public void onPermissionsAlreadyGrantedTwiceThenReportIsReused() {
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+    givenPermissionIsAlreadyGranted(OTHER_PERMISSION);
+    List<String> permissions = Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION);
+    ArgumentCaptor<MultiplePermissionsReport> reportCaptor =
+        ArgumentCaptor.forClass(MultiplePermissionsReport.class);
+
+    dexter.checkPermissions(multiplePermissionsListener, permissions, THREAD);
+    dexter.checkPermissions(multiplePermissionsListener, permissions, THREAD);
+
+    verify(multiplePermissionsListener, times(2)).onPermissionsChecked(reportCaptor.capture());
+    assertSame(reportCaptor.getAllValues().get(0), reportCaptor.getAllValues().get(1));
+    assertTrue(reportCaptor.getValue().areAllPermissionsGranted());
+  }
+
+  @Test public void onPermissionsAlreadyGrantedThenRepeatedChecksDoNotAllocate() {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(isAllocationCounterAvailable(threadBean));
+    dexter = new DexterInstance(context, new GrantedPermissionService(),
+        new PermissionStateCache(new GrantedPermissionService()), permissionHistory,
+        intentProvider, hostFragmentProvider, THREAD);
+    PermissionSet permissions = PermissionSet.from(Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION));
+    MultiplePermissionsListener listener = new EmptyMultiplePermissionsListener();
+    int checks = 10000;
+
+    for (int i = 0; i < checks; i++) {
+      dexter.checkPermissions(listener, permissions, THREAD);
+    }
+    long allocatedBytes = getAllocatedBytes(threadBean);
+    for (int i = 0; i < checks; i++) {
+      dexter.checkPermissions(listener, permissions, THREAD);
+    }
+    allocatedBytes = getAllocatedBytes(threadBean) - allocatedBytes;
+
+    assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < checks);
+  }
+
   @Test public void onShouldShowRationaleThenNotifiesListener() {
     givenPermissionIsAlreadyDenied(ANY_PERMISSION);
     givenShouldShowRationaleForPermission(ANY_PERMISSION);
@@ -136,6 +682,107 @@ import static org.mockito.Mockito.when;
     thenPermissionRationaleIsShown(2);
   }
 
+  @Test public void onPermissionCheckedTwiceThenPermissionStateIsCached() {
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+    whenCheckPermission(permissionListener, ANY_PERMISSION);
+
+    thenPermissionStateIsCheckedOnce(ANY_PERMISSION);
+  }
+
+  @Test public void onOverlappingRequestsThenPermissionsAreRequestedToTheSystemOnce() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenPermissionIsAlreadyDenied(OTHER_PERMISSION);
+    givenPermissionIsAlreadyDenied(ANOTHER_PERMISSION);
+    MultiplePermissionsListener otherMultiplePermissionsListener =
+        mock(MultiplePermissionsListener.class);
+
+    dexter.checkPermissions(multiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION), THREAD);
+    dexter.checkPermissions(otherMultiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, ANOTHER_PERMISSION), THREAD);
+    dexter.onActivityReady(activity);
+    dexter.onPermissionRequestGranted(
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION, ANOTHER_PERMISSION));
+
+    verify(androidPermissionService).requestPermissions(eq(activity), any(String[].class),
+        anyInt());
+    verify(multiplePermissionsListener).onPermissionsChecked(
+        argThat(getGrantedReportMatcher(ANY_PERMISSION, OTHER_PERMISSION)));
+    verify(otherMultiplePermissionsListener).onPermissionsChecked(
+        argThat(getGrantedReportMatcher(ANY_PERMISSION, ANOTHER_PERMISSION)));
+  }
+
+  @Test public void onCoalescedRequestsContinuedThenEveryListenerIsNotified() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    givenPermissionIsAlreadyDenied(OTHER_PERMISSION);
+    givenPermissionIsAlreadyDenied(ANOTHER_PERMISSION);
+    MultiplePermissionsListener otherMultiplePermissionsListener =
+        mock(MultiplePermissionsListener.class);
+    MultiplePermissionsListener continuingListener = mock(MultiplePermissionsListener.class);
+
+    dexter.checkPermissions(multiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION), THREAD);
+    dexter.checkPermissions(otherMultiplePermissionsListener,
+        Arrays.asList(ANY_PERMISSION, ANOTHER_PERMISSION), THREAD);
+    dexter.onActivityReady(activity);
+    dexter.continuePendingRequestsIfPossible(continuingListener, THREAD);
+    dexter.onPermissionRequestGranted(
+        Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION, ANOTHER_PERMISSION));
+
+    verify(multiplePermissionsListener).onPermissionsChecked(
+        argThat(getGrantedReportMatcher(ANY_PERMISSION, OTHER_PERMISSION)));
+    verify(otherMultiplePermissionsListener).onPermissionsChecked(
+        argThat(getGrantedReportMatcher(ANY_PERMISSION, ANOTHER_PERMISSION)));
+    verify(continuingListener).onPermissionsChecked(
+        argThat(getGrantedReportMatcher(ANY_PERMISSION, OTHER_PERMISSION, ANOTHER_PERMISSION)));
+    assertFalse(dexter.isRequestOngoing());
+  }
+
+  @Test public void onPermissionRequestedToTheSystemThenMetricsListenerIsNotifiedOfEveryPhase() {
+    givenPermissionIsAlreadyDenied(ANY_PERMISSION);
+    PermissionRequestMetricsListener metricsListener =
+        mock(PermissionRequestMetricsListener.class);
+
+    dexter.checkPermissions(multiplePermissionsListener, Collections.singletonList(ANY_PERMISSION),
+        THREAD, metricsListener, errorListener, 0);
+    dexter.onActivityReady(activity);
+    dexter.onPermissionsRequested(Collections.singletonList(ANY_PERMISSION),
+        Collections.<String>emptyList());
+
+    InOrder inOrder = inOrder(metricsListener);
+    thenPhaseIsNotified(inOrder, metricsListener, PermissionRequestPhase.REQUEST_ACCEPTED);
+    thenPhaseIsNotified(inOrder, metricsListener, PermissionRequestPhase.ACTIVITY_READY);
+    thenPhaseIsNotified(inOrder, metricsListener,
+        PermissionRequestPhase.SYSTEM_DIALOG_REQUESTED);
+    thenPhaseIsNotified(inOrder, metricsListener, PermissionRequestPhase.SYSTEM_DIALOG_RESULT);
+    thenPhaseIsNotified(inOrder, metricsListener, PermissionRequestPhase.LISTENER_DISPATCHED);
+  }
+
+  @Test public void onExecutorThreadThenListenerIsNotifiedOnTheExecutor() {
+    givenPermissionIsAlreadyGranted(ANY_PERMISSION);
+    Executor executor = mock(Executor.class);
+    Thread thread = ThreadFactory.makeExecutorThread(executor);
+
+    dexter.checkPermission(permissionListener, ANY_PERMISSION, thread);
+
+    verify(executor).execute(any(Runnable.class));
+    verify(permissionListener, never()).onPermissionGranted(any(PermissionGrantedResponse.class));
+  }
+
+  private void givenPermissionsAreDeclared(int[] flags, String... permissions) {
+    when(androidPermissionService.getPermissionSnapshot(any(Context.class))).thenReturn(
+        PermissionSnapshot.from(permissions, flags));
+  }
+
+  private void givenAFragmentCanBeAttachedTo(Activity activity) {
+    dexter.updateContext(activity);
+    when(hostFragmentProvider.canAttach(activity)).thenReturn(true);
+    when(hostFragmentProvider.isInnerActivity(activity)).thenReturn(false);
+    when(hostFragment.getActivity()).thenReturn(activity);
+  }
+
   private void givenPermissionIsAlreadyDenied(String permission) {
     givenPermissionIsChecked(permission, PackageManager.PERMISSION_DENIED);
   }
@@ -144,9 +791,14 @@ import static org.mockito.Mockito.when;
     givenPermissionIsChecked(permission, PackageManager.PERMISSION_GRANTED);
   }
 
+  private void givenPermissionIsGrantedFromTheSettings(String permission) {
+    givenPermissionIsAlreadyGranted(permission);
+    permissionStateCache.invalidate();
+  }
+
   private void givenPermissionIsChecked(String permission, int permissionState) {
-    when(androidPermissionService.checkSelfPermission(activity, permission)).thenReturn(
-        permissionState);
+    when(androidPermissionService.checkSelfPermission(any(Context.class),
+        eq(permission))).thenReturn(permissionState);
   }
 
   private void givenShouldShowRationaleForPermission(String permission) {
@@ -170,10 +822,47 @@ import static org.mockito.Mockito.when;
     dexter.onActivityReady(activity);
   }
 
+  private int whenCheckPermissions(List<String> permissions, long timeoutMillis) {
+    return dexter.checkPermissions(multiplePermissionsListener, permissions, THREAD,
+        new EmptyPermissionRequestMetricsListener(), errorListener, timeoutMillis);
+  }
+
   private void whenContinueWithTheCheckPermissionProcess(PermissionListener permissionListener) {
     dexter.continuePendingRequestIfPossible(permissionListener, THREAD);
   }
 
+  /**
+   * Returns true if the JVM counts the bytes allocated by every thread. The counter is an
+   * extension of HotSpot based JVMs, so its interface may not even be available.
+   */
+  private static boolean isAllocationCounterAvailable(ThreadMXBean threadBean) {
+    try {
+      return threadBean instanceof com.sun.management.ThreadMXBean
+          && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+          && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled();
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  private static long getAllocatedBytes(ThreadMXBean threadBean) {
+    return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+        java.lang.Thread.currentThread().getId());
+  }
+
+  private PermissionToken getRationaleToken(MultiplePermissionsListener listener) {
+    ArgumentCaptor<PermissionToken> tokenCaptor = ArgumentCaptor.forClass(PermissionToken.class);
+    verify(listener).onPermissionRationaleShouldBeShown(any(List.class), tokenCaptor.capture());
+    return tokenCaptor.getValue();
+  }
+
+  private PermissionToken getRationaleToken(PermissionListener listener) {
+    ArgumentCaptor<PermissionToken> tokenCaptor = ArgumentCaptor.forClass(PermissionToken.class);
+    verify(listener).onPermissionRationaleShouldBeShown(any(PermissionRequest.class),
+        tokenCaptor.capture());
+    return tokenCaptor.getValue();
+  }
+
   private void thenPermissionIsGranted(String permission) {
     verify(permissionListener).onPermissionGranted(
         argThat(getPermissionGrantedResponseMatcher(permission)));
@@ -195,6 +884,15 @@ import static org.mockito.Mockito.when;
         isA(PermissionToken.class));
   }
 
+  private void thenPermissionStateIsCheckedOnce(String permission) {
+    verify(androidPermissionService).checkSelfPermission(any(Context.class), eq(permission));
+  }
+
+  private void thenPhaseIsNotified(InOrder inOrder,
+      PermissionRequestMetricsListener metricsListener, PermissionRequestPhase phase) {
+    inOrder.verify(metricsListener).onRequestPhase(anyInt(), eq(phase), anyLong());
+  }
+
   private void thenPermissionRationaleIsShown(int times) {
     verify(permissionListener, times(times)).onPermissionRationaleShouldBeShown(
         isA(PermissionRequest.class), isA(PermissionToken.class));
@@ -221,6 +919,21 @@ import static org.mockito.Mockito.when;
     };
   }
 
+  private static ArgumentMatcher<MultiplePermissionsReport> getGrantedReportMatcher(
+      final String... permissions) {
+    return new ArgumentMatcher<MultiplePermissionsReport>() {
+      @Override public boolean matches(Object argument) {
+        MultiplePermissionsReport report = (MultiplePermissionsReport) argument;
+        List<String> grantedPermissions = new ArrayList<>();
+        for (PermissionGrantedResponse response : report.getGrantedPermissionResponses()) {
+          grantedPermissions.add(response.getPermissionName());
+        }
+        return grantedPermissions.size() == permissions.length
+            && grantedPermissions.containsAll(Arrays.asList(permissions));
+      }
+    };
+  }
+
   private static ArgumentMatcher<PermissionRequest> getPermissionRequestShouldShowTokenMatcher(
       final String permission) {
     return new ArgumentMatcher<PermissionRequest>() {
@@ -255,6 +968,34 @@ import static org.mockito.Mockito.when;
     }
   }
 
+  private static class GrantedPermissionService extends AndroidPermissionService {
+    @Override PermissionSnapshot getPermissionSnapshot(Context context) {
+      return null;
+    }
+
+    @Override int checkSelfPermission(Context context, String permission) {
+      return PackageManager.PERMISSION_GRANTED;
+    }
+  }
+
+  private static class PendingThread implements Thread {
+    private final BlockingQueue<Runnable> pendingRunnables = new LinkedBlockingQueue<>();
+
+    @Override public void execute(Runnable runnable) {
+      pendingRunnables.add(runnable);
+    }
+
+    @Override public void loop() {
+
+    }
+
+    private Runnable takePending() throws InterruptedException {
+      Runnable runnable = pendingRunnables.poll(1, TimeUnit.SECONDS);
+      assertNotNull(runnable);
+      return runnable;
+    }
+  }
+
   private static class TestThread implements Thread {
 
     @Override public void execute(Runnable runnable) {
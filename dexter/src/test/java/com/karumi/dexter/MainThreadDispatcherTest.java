@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class) public class MainThreadDispatcherTest {
+
+  @Mock MainLooper mainLooper;
+  @Mock Runnable runnable;
+  @Mock Runnable otherRunnable;
+
+  private MainThreadDispatcher dispatcher;
+  private MainThreadDispatcher idleDispatcher;
+
+  @Before public void setUp() {
+    dispatcher = new MainThreadDispatcher(false, mainLooper);
+    idleDispatcher = new MainThreadDispatcher(true, mainLooper);
+  }
+
+  @Test public void onSeveralRunnablesDispatchedThenASingleBatchIsPosted() {
+    dispatcher.dispatch(runnable);
+    dispatcher.dispatch(otherRunnable);
+
+    verify(mainLooper).post(dispatcher);
+  }
+
+  @Test public void onBatchHandledThenRunnablesAreExecutedInOrder() {
+    dispatcher.dispatch(runnable);
+    dispatcher.dispatch(otherRunnable);
+
+    dispatcher.run();
+
+    InOrder inOrder = inOrder(runnable, otherRunnable);
+    inOrder.verify(runnable).run();
+    inOrder.verify(otherRunnable).run();
+    assertTrue(dispatcher.isEmpty());
+  }
+
+  @Test public void onBatchHandledThenNextRunnablePostsANewBatch() {
+    dispatcher.dispatch(runnable);
+    dispatcher.run();
+
+    dispatcher.dispatch(otherRunnable);
+
+    verify(mainLooper, times(2)).post(dispatcher);
+  }
+
+  @Test public void onIdleBatchHandledThenRunnablesWaitForTheMainThreadToBeIdle() {
+    idleDispatcher.dispatch(runnable);
+
+    idleDispatcher.run();
+
+    verify(mainLooper).addIdleHandler(idleDispatcher);
+    verify(runnable, never()).run();
+  }
+
+  @Test public void onMainThreadIdleThenIdleBatchIsExecutedOnce() {
+    idleDispatcher.dispatch(runnable);
+    idleDispatcher.run();
+
+    boolean keepIdleHandler = idleDispatcher.queueIdle();
+
+    verify(runnable).run();
+    assertFalse(keepIdleHandler);
+    assertTrue(idleDispatcher.isEmpty());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionDeniedResponse;
+import com.karumi.dexter.listener.PermissionGrantedResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MultiplePermissionsReportTest {
+
+  private static final String ANY_PERMISSION = "noissimrep yna";
+  private static final String OTHER_PERMISSION = "noissimrep rehto";
+  private static final String ANOTHER_PERMISSION = "noissimrep rehtona";
+
+  private MultiplePermissionsReport report;
+
+  @Before public void setUp() {
+    report = new MultiplePermissionsReport();
+  }
+
+  @Test public void onGrantedPermissionThenReportIsIndexedByName() {
+    givenGrantedPermission(ANY_PERMISSION);
+
+    assertTrue(report.isGranted(ANY_PERMISSION));
+    assertFalse(report.isDenied(ANY_PERMISSION));
+    assertEquals(ANY_PERMISSION,
+        report.getGrantedPermissionResponse(ANY_PERMISSION).getPermissionName());
+    assertNull(report.getDeniedPermissionResponse(ANY_PERMISSION));
+  }
+
+  @Test public void onDeniedPermissionsThenCountsAreUpdated() {
+    givenGrantedPermission(ANY_PERMISSION);
+    givenDeniedPermission(OTHER_PERMISSION, false);
+    givenDeniedPermission(ANOTHER_PERMISSION, true);
+
+    assertEquals(1, report.getGrantedCount());
+    assertEquals(2, report.getDeniedCount());
+    assertEquals(1, report.getPermanentlyDeniedCount());
+    assertFalse(report.areAllPermissionsGranted());
+  }
+
+  @Test public void onPermanentlyDeniedPermissionThenReportIsFlagged() {
+    givenDeniedPermission(OTHER_PERMISSION, false);
+    givenDeniedPermission(ANOTHER_PERMISSION, true);
+
+    assertTrue(report.isAnyPermissionPermanentlyDenied());
+    assertTrue(report.isPermanentlyDenied(ANOTHER_PERMISSION));
+    assertFalse(report.isPermanentlyDenied(OTHER_PERMISSION));
+    assertFalse(report.isPermanentlyDenied(ANY_PERMISSION));
+  }
+
+  @Test public void onNoDeniedPermissionThenNoPermissionIsPermanentlyDenied() {
+    givenGrantedPermission(ANY_PERMISSION);
+
+    assertTrue(report.areAllPermissionsGranted());
+    assertFalse(report.isAnyPermissionPermanentlyDenied());
+  }
+
+  @Test public void onReportCopiedThenResponsesAddedToTheCopyDoNotChangeTheOriginal() {
+    givenDeniedPermission(ANY_PERMISSION, true);
+
+    MultiplePermissionsReport copy = new MultiplePermissionsReport(report);
+    copy.addGrantedPermissionResponse(PermissionGrantedResponse.from(OTHER_PERMISSION));
+    copy.addDeniedPermissionResponse(PermissionDeniedResponse.from(ANOTHER_PERMISSION, true));
+
+    assertEquals(2, copy.getPermanentlyDeniedCount());
+    assertTrue(copy.isGranted(OTHER_PERMISSION));
+    assertEquals(1, report.getPermanentlyDeniedCount());
+    assertEquals(0, report.getGrantedCount());
+    assertFalse(report.isDenied(ANOTHER_PERMISSION));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void onModifyingTheResponsesThenThrowException() {
+    report.getGrantedPermissionResponses().add(PermissionGrantedResponse.from(ANY_PERMISSION));
+  }
+
+  private void givenGrantedPermission(String permission) {
+    report.addGrantedPermissionResponse(PermissionGrantedResponse.from(permission));
+  }
+
+  private void givenDeniedPermission(String permission, boolean permanentlyDenied) {
+    report.addDeniedPermissionResponse(
+        PermissionDeniedResponse.from(permission, permanentlyDenied));
+  }
+}
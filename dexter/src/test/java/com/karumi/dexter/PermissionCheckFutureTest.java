@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.content.Context;
+import com.karumi.dexter.listener.DexterError;
+import com.karumi.dexter.listener.EmptyPermissionRequestMetricsListener;
+import com.karumi.dexter.listener.PermissionRequest;
+import com.karumi.dexter.listener.PermissionRequestErrorListener;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class) public class PermissionCheckFutureTest {
+
+  private static final List<PermissionRequest> PERMISSIONS =
+      Collections.singletonList(new PermissionRequest("noissimrep yna"));
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override public void execute(Runnable runnable) {
+      runnable.run();
+    }
+  };
+  private static final Thread DIRECT_THREAD = new Thread() {
+    @Override public void execute(Runnable runnable) {
+      runnable.run();
+    }
+
+    @Override public void loop() {
+    }
+  };
+
+  @Mock PermissionToken token;
+  @Mock Runnable callback;
+  @Mock Context context;
+  @Mock AndroidPermissionService androidPermissionService;
+  @Mock IntentProvider intentProvider;
+  @Mock PermissionRequestErrorListener errorListener;
+
+  private PermissionCheckFuture future;
+
+  @Before public void setUp() {
+    future = new PermissionCheckFuture();
+  }
+
+  @Test public void onPermissionsCheckedThenFutureIsCompletedWithTheReport() throws Exception {
+    MultiplePermissionsReport report = new MultiplePermissionsReport();
+
+    future.asListener(null).onPermissionsChecked(report);
+
+    assertTrue(future.isDone());
+    assertSame(report, future.get());
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void onPermissionsNotCheckedThenGetTimesOut() throws Exception {
+    future.get(1, TimeUnit.MILLISECONDS);
+  }
+
+  @Test public void onBlockingWaitTimedOutThenRequestIsCancelled() throws Exception {
+    try {
+      future.getOrCancel(1, TimeUnit.MILLISECONDS);
+      fail("TimeoutException expected");
+    } catch (TimeoutException e) {
+      assertTrue(future.isCancelled());
+    }
+  }
+
+  @Test public void onBlockingWaitInterruptedThenRequestIsCancelledAndInterruptIsRestored()
+      throws Exception {
+    java.lang.Thread.currentThread().interrupt();
+
+    try {
+      future.getOrCancel(1, TimeUnit.SECONDS);
+      fail("InterruptedException expected");
+    } catch (InterruptedException e) {
+      assertTrue(future.isCancelled());
+      assertTrue(java.lang.Thread.interrupted());
+    }
+  }
+
+  @Test public void onBlockingWaitFailedThenDexterExceptionIsUnwrapped() throws Exception {
+    DexterException exception =
+        new DexterException("any message", DexterError.REQUEST_TIMED_OUT);
+    future.setException(exception);
+
+    try {
+      future.getOrCancel(1, TimeUnit.SECONDS);
+      fail("DexterException expected");
+    } catch (DexterException e) {
+      assertSame(exception, e);
+      assertFalse(future.isCancelled());
+    }
+  }
+
+  @Test public void onRequestUnableToStartThenErrorIsReportedOnceAndFutureFails()
+      throws Exception {
+    DexterInstance instance = new DexterInstance(context, androidPermissionService,
+        intentProvider);
+
+    future.start(instance, null, Collections.<String>emptyList(), DIRECT_THREAD,
+        new EmptyPermissionRequestMetricsListener(), errorListener, 0);
+
+    verify(errorListener, times(1)).onError(DexterError.NO_PERMISSIONS_REQUESTED);
+    try {
+      future.get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException e) {
+      assertEquals(DexterError.NO_PERMISSIONS_REQUESTED, ((DexterException) e.getCause()).error);
+    }
+  }
+
+  @Test(expected = CancellationException.class)
+  public void onCancelThenGetThrowsCancellationException() throws Exception {
+    future.cancel(false);
+
+    future.get();
+  }
+
+  @Test public void onCancelThenReportIsIgnored() {
+    future.cancel(false);
+
+    assertFalse(future.set(new MultiplePermissionsReport()));
+    assertTrue(future.isCancelled());
+  }
+
+  @Test public void onCompletedThenCallbacksAreExecuted() {
+    future.addListener(callback, DIRECT_EXECUTOR);
+
+    future.set(new MultiplePermissionsReport());
+
+    verify(callback).run();
+  }
+
+  @Test public void onCallbackAddedAfterCompletionThenItIsExecuted() {
+    future.set(new MultiplePermissionsReport());
+
+    future.addListener(callback, DIRECT_EXECUTOR);
+
+    verify(callback).run();
+  }
+
+  @Test public void onRationaleWithoutListenerThenRequestContinues() {
+    future.asListener(null).onPermissionRationaleShouldBeShown(PERMISSIONS, token);
+
+    verify(token).continuePermissionRequest();
+  }
+
+  @Test public void onRationaleAfterCancelThenRequestIsCancelled() {
+    future.cancel(false);
+
+    future.asListener(null).onPermissionRationaleShouldBeShown(PERMISSIONS, token);
+
+    verify(token).cancelPermissionRequest();
+    verify(token, never()).continuePermissionRequest();
+  }
+}
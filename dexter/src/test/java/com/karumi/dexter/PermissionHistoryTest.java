@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.content.Context;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PermissionHistoryTest {
+
+  private static final String ANY_PERMISSION = "noissimrep yna";
+  private static final String OTHER_PERMISSION = "noissimrep rehto";
+  private static final Executor SAME_THREAD_EXECUTOR = new Executor() {
+    @Override public void execute(Runnable runnable) {
+      runnable.run();
+    }
+  };
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+
+  @Before public void setUp() {
+    file = new File(temporaryFolder.getRoot(), PermissionHistory.FILE_NAME);
+  }
+
+  @Test public void onPermissionNeverRequestedThenHasNoHistory() {
+    PermissionHistory history = givenAPermissionHistory();
+
+    assertFalse(history.hasBeenRequested(ANY_PERMISSION));
+    assertFalse(history.isPermanentlyDenied(ANY_PERMISSION));
+    assertEquals(0, history.getLastDecisionTime(ANY_PERMISSION));
+  }
+
+  @Test public void onPermissionPermanentlyDeniedThenIsKeptAcrossInstances() {
+    givenAPermissionHistory().onPermissionDenied(ANY_PERMISSION, true);
+
+    PermissionHistory history = givenAPermissionHistory();
+
+    assertTrue(history.hasBeenRequested(ANY_PERMISSION));
+    assertTrue(history.isPermanentlyDenied(ANY_PERMISSION));
+    assertFalse(history.hasBeenRequested(OTHER_PERMISSION));
+  }
+
+  @Test public void onPermissionGrantedAfterBeingDeniedThenLastDecisionIsKept() {
+    PermissionHistory history = givenAPermissionHistory();
+    history.onPermissionDenied(ANY_PERMISSION, true);
+    history.onPermissionGranted(ANY_PERMISSION);
+
+    assertFalse(givenAPermissionHistory().isPermanentlyDenied(ANY_PERMISSION));
+  }
+
+  @Test public void onPermissionForgottenThenIsForgottenAcrossInstances() {
+    PermissionHistory history = givenAPermissionHistory();
+    history.onPermissionDenied(ANY_PERMISSION, true);
+    history.forget(ANY_PERMISSION);
+
+    assertFalse(history.hasBeenRequested(ANY_PERMISSION));
+    assertFalse(history.hasPermanentlyDeniedPermissions());
+    assertFalse(givenAPermissionHistory().hasBeenRequested(ANY_PERMISSION));
+  }
+
+  @Test public void onRecordPartiallyWrittenThenPreviousRecordsAreKept() throws IOException {
+    givenAPermissionHistory().onPermissionDenied(ANY_PERMISSION, true);
+    givenGarbageAppendedToTheFile();
+
+    PermissionHistory history = givenAPermissionHistory();
+    history.onPermissionDenied(OTHER_PERMISSION, true);
+
+    PermissionHistory reloadedHistory = givenAPermissionHistory();
+    assertTrue(reloadedHistory.isPermanentlyDenied(ANY_PERMISSION));
+    assertTrue(reloadedHistory.isPermanentlyDenied(OTHER_PERMISSION));
+  }
+
+  @Test public void onFileNotReadYetThenDecisionsRecordedMeanwhileAreKept() {
+    givenAPermissionHistory().onPermissionDenied(ANY_PERMISSION, true);
+    givenAPermissionHistory().onPermissionDenied(OTHER_PERMISSION, true);
+    QueuedExecutor executor = new QueuedExecutor();
+
+    PermissionHistory history = new PermissionHistory(file, executor);
+    assertFalse(history.isLoaded());
+    assertFalse(history.isPermanentlyDenied(ANY_PERMISSION));
+    history.onPermissionGranted(ANY_PERMISSION);
+    executor.runAll();
+
+    assertTrue(history.isLoaded());
+    assertFalse(history.isPermanentlyDenied(ANY_PERMISSION));
+    assertTrue(history.isPermanentlyDenied(OTHER_PERMISSION));
+    assertTrue(history.hasPermanentlyDeniedPermissions());
+  }
+
+  @Test public void onHistoryInFilesDirThenDirIsOnlyResolvedOnTheWriteExecutor() {
+    Context context = mock(Context.class);
+    when(context.getFilesDir()).thenReturn(temporaryFolder.getRoot());
+    QueuedExecutor executor = new QueuedExecutor();
+
+    PermissionHistory history = PermissionHistory.inFilesDir(context, executor);
+    history.onPermissionDenied(ANY_PERMISSION, true);
+    verify(context, never()).getFilesDir();
+    executor.runAll();
+
+    verify(context).getFilesDir();
+    assertTrue(givenAPermissionHistory().isPermanentlyDenied(ANY_PERMISSION));
+  }
+
+  @Test public void onNoFileThenHistoryIsKeptInMemory() {
+    PermissionHistory history = new PermissionHistory(null, null);
+
+    history.onPermissionDenied(ANY_PERMISSION, false);
+
+    assertTrue(history.hasBeenRequested(ANY_PERMISSION));
+    assertFalse(history.isPermanentlyDenied(ANY_PERMISSION));
+  }
+
+  private PermissionHistory givenAPermissionHistory() {
+    return new PermissionHistory(file, SAME_THREAD_EXECUTOR);
+  }
+
+  private void givenGarbageAppendedToTheFile() throws IOException {
+    FileOutputStream outputStream = new FileOutputStream(file, true);
+    outputStream.write(new byte[] { 3, 0, 0 });
+    outputStream.close();
+  }
+
+  private static class QueuedExecutor implements Executor {
+    private final Queue<Runnable> runnables = new LinkedList<>();
+
+    @Override public void execute(Runnable runnable) {
+      runnables.add(runnable);
+    }
+
+    private void runAll() {
+      Runnable runnable;
+      while ((runnable = runnables.poll()) != null) {
+        runnable.run();
+      }
+    }
+  }
+}
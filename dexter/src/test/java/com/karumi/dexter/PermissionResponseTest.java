@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import com.karumi.dexter.listener.PermissionDeniedResponse;
+import com.karumi.dexter.listener.PermissionGrantedResponse;
+import com.karumi.dexter.listener.PermissionRequest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionResponseTest {
+
+  private static final String ANY_PERMISSION = "noissimrep yna";
+  private static final String OTHER_PERMISSION = "noissimrep rehto";
+
+  @Test public void onSamePermissionRequestedTwiceThenSameInstanceIsReturned() {
+    assertSame(PermissionRequest.from(ANY_PERMISSION), PermissionRequest.from(ANY_PERMISSION));
+  }
+
+  @Test public void onSamePermissionGrantedTwiceThenSameResponseIsReturned() {
+    PermissionGrantedResponse response = PermissionGrantedResponse.from(ANY_PERMISSION);
+
+    assertSame(response, PermissionGrantedResponse.from(ANY_PERMISSION));
+    assertSame(PermissionRequest.from(ANY_PERMISSION), response.getRequestedPermission());
+  }
+
+  @Test public void onDifferentPermissionsGrantedThenDifferentResponsesAreReturned() {
+    PermissionGrantedResponse response = PermissionGrantedResponse.from(ANY_PERMISSION);
+    PermissionGrantedResponse otherResponse = PermissionGrantedResponse.from(OTHER_PERMISSION);
+
+    assertNotSame(response, otherResponse);
+    assertEquals(OTHER_PERMISSION, otherResponse.getPermissionName());
+  }
+
+  @Test public void onSamePermissionDeniedTwiceThenSameResponseIsReturned() {
+    assertSame(PermissionDeniedResponse.from(ANY_PERMISSION, false),
+        PermissionDeniedResponse.from(ANY_PERMISSION, false));
+  }
+
+  @Test public void onPermissionPermanentlyDeniedThenResponseKeepsTheFlag() {
+    PermissionDeniedResponse deniedResponse = PermissionDeniedResponse.from(ANY_PERMISSION, false);
+    PermissionDeniedResponse permanentlyDeniedResponse =
+        PermissionDeniedResponse.from(ANY_PERMISSION, true);
+
+    assertNotSame(deniedResponse, permanentlyDeniedResponse);
+    assertTrue(permanentlyDeniedResponse.isPermanentlyDenied());
+  }
+}
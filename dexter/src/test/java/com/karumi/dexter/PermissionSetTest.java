@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionSetTest {
+
+  private static final String ANY_PERMISSION = "noissimrep yna";
+  private static final String OTHER_PERMISSION = "noissimrep rehto";
+  private static final String ANOTHER_PERMISSION = "noissimrep rehtona";
+  private static final int MANY_PERMISSIONS = 200;
+
+  @Test public void onPermissionAddedThenSetContainsIt() {
+    PermissionSet permissions = givenPermissionSet(ANY_PERMISSION);
+
+    assertTrue(permissions.contains(ANY_PERMISSION));
+    assertFalse(permissions.contains(OTHER_PERMISSION));
+    assertEquals(1, permissions.size());
+  }
+
+  @Test public void onPermissionAddedTwiceThenSetIsNotModified() {
+    PermissionSet permissions = givenPermissionSet(ANY_PERMISSION);
+
+    assertFalse(permissions.add(ANY_PERMISSION));
+    assertEquals(1, permissions.size());
+  }
+
+  @Test public void onRemoveAllThenOnlyTheRemainingPermissionsAreKept() {
+    PermissionSet permissions =
+        givenPermissionSet(ANY_PERMISSION, OTHER_PERMISSION, ANOTHER_PERMISSION);
+
+    permissions.removeAll(givenPermissionSet(ANY_PERMISSION, ANOTHER_PERMISSION));
+
+    assertEquals(Collections.singleton(OTHER_PERMISSION), permissions);
+  }
+
+  @Test public void onSetsWithCommonPermissionsThenTheyIntersect() {
+    PermissionSet permissions = givenPermissionSet(ANY_PERMISSION, OTHER_PERMISSION);
+
+    assertTrue(permissions.intersects(givenPermissionSet(OTHER_PERMISSION, ANOTHER_PERMISSION)));
+    assertFalse(permissions.intersects(givenPermissionSet(ANOTHER_PERMISSION)));
+  }
+
+  @Test public void onSetsWithSamePermissionsThenTheyAreEqual() {
+    PermissionSet permissions = givenPermissionSet(ANY_PERMISSION, OTHER_PERMISSION);
+    PermissionSet otherPermissions = givenPermissionSet(OTHER_PERMISSION, ANY_PERMISSION);
+
+    assertEquals(permissions, otherPermissions);
+    assertEquals(permissions.hashCode(), otherPermissions.hashCode());
+  }
+
+  @Test public void onSetWithSamePermissionsThanOtherSetImplementationThenTheyAreEqual() {
+    PermissionSet permissions = givenPermissionSet(ANY_PERMISSION, OTHER_PERMISSION);
+    Set<String> otherPermissions = new HashSet<>(Arrays.asList(ANY_PERMISSION, OTHER_PERMISSION));
+
+    assertEquals(otherPermissions, permissions);
+    assertEquals(otherPermissions.hashCode(), permissions.hashCode());
+  }
+
+  @Test public void onIteratorRemoveThenPermissionIsRemoved() {
+    PermissionSet permissions = givenPermissionSet(ANY_PERMISSION, OTHER_PERMISSION);
+
+    Iterator<String> iterator = permissions.iterator();
+    iterator.next();
+    iterator.remove();
+
+    assertEquals(1, permissions.size());
+  }
+
+  @Test public void onMorePermissionsThanBitsInALongThenAllOfThemAreKept() {
+    List<String> manyPermissions = givenManyPermissions();
+
+    PermissionSet permissions = new PermissionSet(manyPermissions);
+
+    assertEquals(MANY_PERMISSIONS, permissions.size());
+    assertTrue(permissions.containsAll(manyPermissions));
+  }
+
+  private static PermissionSet givenPermissionSet(String... permissions) {
+    return new PermissionSet(Arrays.asList(permissions));
+  }
+
+  private static List<String> givenManyPermissions() {
+    String[] permissions = new String[MANY_PERMISSIONS];
+    for (int i = 0; i < MANY_PERMISSIONS; i++) {
+      permissions[i] = ANY_PERMISSION + i;
+    }
+    return Arrays.asList(permissions);
+  }
+}
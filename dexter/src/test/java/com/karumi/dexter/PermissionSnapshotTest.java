@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import android.content.pm.PackageInfo;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionSnapshotTest {
+
+  private static final String ANY_PERMISSION = "noissimrep yna";
+  private static final String OTHER_PERMISSION = "noissimrep rehto";
+  private static final String UNDECLARED_PERMISSION = "noissimrep deralcednu";
+  private static final String[] DECLARED_PERMISSIONS = { ANY_PERMISSION, OTHER_PERMISSION };
+
+  @Test public void onPermissionFlaggedAsGrantedThenIsGranted() {
+    PermissionSnapshot snapshot = PermissionSnapshot.from(DECLARED_PERMISSIONS,
+        new int[] { PackageInfo.REQUESTED_PERMISSION_GRANTED, 0 });
+
+    assertTrue(snapshot.isGranted(ANY_PERMISSION));
+    assertFalse(snapshot.isGranted(OTHER_PERMISSION));
+    assertTrue(snapshot.isDeclared(OTHER_PERMISSION));
+  }
+
+  @Test public void onPermissionNotDeclaredThenIsNotGranted() {
+    PermissionSnapshot snapshot = PermissionSnapshot.from(DECLARED_PERMISSIONS, null);
+
+    assertFalse(snapshot.isDeclared(UNDECLARED_PERMISSION));
+    assertFalse(snapshot.isGranted(UNDECLARED_PERMISSION));
+  }
+
+  @Test public void onFlagsNotAvailableThenEveryDeclaredPermissionIsGranted() {
+    PermissionSnapshot snapshot = PermissionSnapshot.from(DECLARED_PERMISSIONS, null);
+
+    assertTrue(snapshot.areAllGranted(snapshot.getDeclaredPermissions()));
+  }
+
+  @Test public void onPermissionStateChangedThenNewSnapshotIsReturned() {
+    PermissionSnapshot snapshot = PermissionSnapshot.from(DECLARED_PERMISSIONS, new int[2]);
+
+    PermissionSnapshot updatedSnapshot =
+        snapshot.withPermissionStates(Collections.singletonList(ANY_PERMISSION), true);
+
+    assertFalse(snapshot.isGranted(ANY_PERMISSION));
+    assertTrue(updatedSnapshot.isGranted(ANY_PERMISSION));
+  }
+
+  @Test public void onPermissionStateUnchangedThenSameSnapshotIsReturned() {
+    PermissionSnapshot snapshot = PermissionSnapshot.from(DECLARED_PERMISSIONS, new int[2]);
+
+    assertSame(snapshot, snapshot.withPermissionStates(
+        Collections.singletonList(ANY_PERMISSION), false));
+    assertSame(snapshot, snapshot.withPermissionStates(
+        Collections.singletonList(UNDECLARED_PERMISSION), true));
+  }
+}
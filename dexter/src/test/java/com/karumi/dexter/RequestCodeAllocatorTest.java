@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Karumi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.karumi.dexter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCodeAllocatorTest {
+
+  private final RequestCodeAllocator allocator = new RequestCodeAllocator();
+
+  @Test public void onRequestsInFlightThenEveryOneHasItsOwnCode() {
+    int requestCode = allocator.allocate();
+
+    assertNotEquals(requestCode, allocator.allocate());
+  }
+
+  @Test public void onRequestCodeReleasedThenItWasInFlight() {
+    int requestCode = allocator.allocate();
+
+    assertTrue(allocator.release(requestCode));
+  }
+
+  @Test public void onRequestCodeReleasedTwiceThenSecondReleaseReturnsFalse() {
+    int requestCode = allocator.allocate();
+    allocator.release(requestCode);
+
+    assertFalse(allocator.release(requestCode));
+  }
+
+  @Test public void onEveryRequestCodeReleasedThenPendingResultsAreDiscarded() {
+    int requestCode = allocator.allocate();
+
+    allocator.releaseAll();
+
+    assertFalse(allocator.release(requestCode));
+  }
+}